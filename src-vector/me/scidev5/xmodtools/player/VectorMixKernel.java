@@ -0,0 +1,123 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+package me.scidev5.xmodtools.player;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+// Kept out of src because it needs the jdk.incubator.vector module (--add-modules jdk.incubator.vector), MixKernel only loads it reflectively.
+class VectorMixKernel extends MixKernel {
+	
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	/** Ints with the same number of lanes as FLOATS. */
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	/** Shorts with the same number of lanes as FLOATS. */
+	private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class, VectorShape.forBitSize(FLOATS.vectorBitSize() / 2));
+	
+	/** Lane indices, for building gain ramps. */
+	private final FloatVector iota;
+	
+	VectorMixKernel() {
+		if (FLOATS.length() < 4)
+			throw new UnsupportedOperationException("No SIMD support.");
+		float[] indices = new float[FLOATS.length()];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = i;
+		this.iota = FloatVector.fromArray(FLOATS, indices, 0);
+	}
+	
+	@Override
+	void mix(float[] src, int srcOffset, float[] dst, int dstOffset, int length, float gain, float step, int index) {
+		int bound = FLOATS.loopBound(length);
+		int i = 0;
+		if (step == 0) {
+			for (; i < bound; i += FLOATS.length()) {
+				FloatVector s = FloatVector.fromArray(FLOATS, src, srcOffset + i);
+				FloatVector d = FloatVector.fromArray(FLOATS, dst, dstOffset + i);
+				d.add(s.mul(gain)).intoArray(dst, dstOffset + i);
+			}
+			for (; i < length; i++)
+				dst[dstOffset+i] += gain * src[srcOffset+i];
+		} else {
+			for (; i < bound; i += FLOATS.length()) {
+				FloatVector gains = this.iota.add(index + i).mul(step).add(gain);
+				FloatVector s = FloatVector.fromArray(FLOATS, src, srcOffset + i);
+				FloatVector d = FloatVector.fromArray(FLOATS, dst, dstOffset + i);
+				d.add(gains.mul(s)).intoArray(dst, dstOffset + i);
+			}
+			for (; i < length; i++)
+				dst[dstOffset+i] += (gain + (index + i) * step) * src[srcOffset+i];
+		}
+	}
+	@Override
+	void accumulate(float[] src, int srcOffset, float[] dst, int dstOffset, int length) {
+		int bound = FLOATS.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += FLOATS.length()) {
+			FloatVector s = FloatVector.fromArray(FLOATS, src, srcOffset + i);
+			FloatVector d = FloatVector.fromArray(FLOATS, dst, dstOffset + i);
+			d.add(s).intoArray(dst, dstOffset + i);
+		}
+		for (; i < length; i++)
+			dst[dstOffset+i] += src[srcOffset+i];
+	}
+	@Override
+	void convert(float[] mix, short[] out, int offset, int length, float gain) {
+		int bound = offset + FLOATS.loopBound(length);
+		int i = offset;
+		for (; i < bound; i += FLOATS.length()) {
+			FloatVector value = FloatVector.fromArray(FLOATS, mix, i).mul(gain).min(1f).max(-1f).mul(32767.5f).sub(0.5f);
+			IntVector sample = value.add(ROUNDING_MAGIC).reinterpretAsInts().sub(ROUNDING_MAGIC_BITS);
+			((ShortVector) sample.convertShape(VectorOperators.I2S, SHORTS, 0)).intoArray(out, i);
+		}
+		for (; i < offset + length; i++)
+			out[i] = toShort(mix[i], gain);
+	}
+	@Override
+	void scale(float[] mix, float[] out, int offset, int length, float gain) {
+		int bound = offset + FLOATS.loopBound(length);
+		int i = offset;
+		for (; i < bound; i += FLOATS.length())
+			FloatVector.fromArray(FLOATS, mix, i).mul(gain).intoArray(out, i);
+		for (; i < offset + length; i++)
+			out[i] = mix[i] * gain;
+	}
+	@Override
+	void interleave(short[] left, short[] right, int offset, short[] out, int outOffset, int length) {
+		int bound = SHORTS.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += SHORTS.length()) {
+			// Pack each frame into an int (left in the low half) and reinterpret the ints as pairs of shorts.
+			IntVector l = (IntVector) ShortVector.fromArray(SHORTS, left, offset + i).convertShape(VectorOperators.S2I, INTS, 0);
+			IntVector r = (IntVector) ShortVector.fromArray(SHORTS, right, offset + i).convertShape(VectorOperators.S2I, INTS, 0);
+			l.and(0xffff).or(r.lanewise(VectorOperators.LSHL, 16)).reinterpretAsShorts().intoArray(out, outOffset + 2*i);
+		}
+		for (; i < length; i++) {
+			out[outOffset+2*i]   = left[offset+i];
+			out[outOffset+2*i+1] = right[offset+i];
+		}
+	}
+}
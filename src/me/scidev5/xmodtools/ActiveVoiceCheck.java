@@ -0,0 +1,102 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools;
+
+import java.util.concurrent.ForkJoinPool;
+
+import javax.sound.sampled.AudioFormat;
+
+import me.scidev5.xmodtools.data.Instrument;
+import me.scidev5.xmodtools.data.LoopType;
+import me.scidev5.xmodtools.data.Pattern;
+import me.scidev5.xmodtools.data.Pattern.PatternData;
+import me.scidev5.xmodtools.data.Sample;
+import me.scidev5.xmodtools.data.Song;
+import me.scidev5.xmodtools.player.XMAudioController;
+
+public class ActiveVoiceCheck {
+	
+	private static final int CHANNELS = 8;
+	
+	/**
+	 * Start a short one-shot sample on every channel and check that the active voice count
+	 * drops to 0 once they have all played out, rendering serially and on a pool.
+	 * Exits with status 1 if it doesn't.
+	 */
+	public static void main(String[] args) {
+		boolean passed = check(null);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		passed &= check(pool);
+		pool.shutdown();
+		
+		if (!passed) {
+			System.out.println("Voices were still active after their samples ended.");
+			System.exit(1);
+		}
+		System.out.println("All voices stopped once their samples ended.");
+	}
+	
+	private static boolean check(ForkJoinPool pool) {
+		AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+		XMAudioController controller = new XMAudioController(createSong(), format);
+		controller.setRenderPool(pool);
+		
+		short[] dataL = new short[441];
+		short[] dataR = new short[441];
+		int started = 0;
+		for (int i = 0; i < 100; i++) {
+			controller.render(dataL, dataR);
+			started = Math.max(started, controller.getActiveVoiceCount());
+		}
+		int left = controller.getActiveVoiceCount();
+		System.out.println((pool != null ? "pool: " : "serial: ") + started + " voices started, " + left + " active after 1 s");
+		return started == CHANNELS && left == 0;
+	}
+	
+	/**
+	 * A 64 row pattern that starts a 0.1 second unlooped sample on every channel in its first row.
+	 */
+	private static Song createSong() {
+		Song song = new Song();
+		song.setNumChannels(CHANNELS);
+		song.setDefaultTempo(6, 125);
+		
+		short[] data = new short[4410];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (short) (Math.sin(i*0.05) * 20000 * (data.length - i) / data.length);
+		Sample sample = new Sample(data);
+		sample.setLoop(LoopType.NONE, 0, 0);
+		sample.setDefaultVolume((byte) 0x40);
+		Instrument instrument = new Instrument();
+		instrument.addSample(sample);
+		song.addInstrument(instrument);
+		
+		Pattern pattern = new Pattern(song, 64);
+		for (int channel = 0; channel < CHANNELS; channel++)
+			pattern.setData(new PatternData(49, 1, 0, 0, 0), 0, channel);
+		song.addPattern(pattern);
+		song.setSongLength((short) 1);
+		song.setPatternOrder(new byte[] { 0 });
+		return song;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+import me.scidev5.xmodtools.player.PlayerThread;
+import me.scidev5.xmodtools.player.XMAudioController;
+import me.scidev5.xmodtools.player.sink.NullSink;
+
+public class AllocationCheck {
+	
+	/**
+	 * Play a generated song into a NullSink and print how many bytes the player thread allocates per frame.
+	 * Exits with status 1 if it allocated anything after warming up.
+	 * @param args [channels (default 32)] [seconds to measure (default 5)]
+	 */
+	public static void main(String[] args) throws Exception {
+		int channels = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		
+		PlayerThread player = new PlayerThread();
+		player.setController(new XMAudioController(BenchmarkSongs.create(1, channels), player.getAudioFormat()));
+		NullSink sink = new NullSink();
+		player.setSink(sink);
+		player.start();
+		
+		// Let the JIT compile the render path first. (The JVM itself allocates a little on this thread while it does.)
+		Thread.sleep(5000);
+		
+		long allocated = 0;
+		for (int i = 0; i < seconds; i++) {
+			long bytesBefore = threads.getThreadAllocatedBytes(player.getId());
+			long framesBefore = sink.getFramesWritten();
+			Thread.sleep(1000);
+			long bytes = threads.getThreadAllocatedBytes(player.getId()) - bytesBefore;
+			long frames = sink.getFramesWritten() - framesBefore;
+			System.out.printf("%d bytes over %d sample frames (%.3f bytes per 1024)%n", bytes, frames, bytes * 1024.0 / Math.max(1, frames));
+			allocated += bytes;
+		}
+		player.end();
+		
+		if (allocated > 0) {
+			System.out.println("The player thread allocated " + allocated + " bytes.");
+			System.exit(1);
+		}
+		System.out.println("The player thread allocated nothing.");
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools;
+
+import java.util.Random;
+
+import me.scidev5.xmodtools.data.Instrument;
+import me.scidev5.xmodtools.data.LoopType;
+import me.scidev5.xmodtools.data.Pattern;
+import me.scidev5.xmodtools.data.Pattern.PatternData;
+import me.scidev5.xmodtools.data.Sample;
+import me.scidev5.xmodtools.data.Song;
+import me.scidev5.xmodtools.player.automation.Envelope;
+
+class BenchmarkSongs {
+	
+	private static final int[] EFFECTS = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 12, 14, 14, 14, 14, 17, 20, 25, 27, 29 };
+	private static final int[] EXTENDED_EFFECTS = { 0x1, 0x2, 0x3, 0x9, 0xa, 0xb, 0xc, 0xd, 0x5 };
+	
+	/**
+	 * Create a song with random notes and effects on every channel, played by 8 and 16 bit samples with every loop type.
+	 * @param seed The seed for the notes and samples.
+	 * @param channels The number of channels.
+	 * @return The song.
+	 */
+	static Song create(long seed, int channels) {
+		Random random = new Random(seed);
+		Song song = new Song();
+		song.setNumChannels(channels);
+		song.setDefaultTempo(6, 125);
+		
+		for (int i = 0; i < 4; i++) {
+			int length = 1 + random.nextInt(i == 3 ? 3 : 5000);
+			Sample sample;
+			if (i % 2 == 0) {
+				short[] data = new short[length];
+				for (int j = 0; j < length; j++)
+					data[j] = (short) (Math.sin(j*0.1*(i+1))*20000 + random.nextInt(2000));
+				sample = new Sample(data);
+			} else {
+				byte[] data = new byte[length];
+				for (int j = 0; j < length; j++)
+					data[j] = (byte) (Math.sin(j*0.07*(i+1))*100);
+				sample = new Sample(data);
+			}
+			sample.setLoop(LoopType.values()[i % 3], length/3, length/2);
+			sample.setDefaultVolume((byte) 0x30);
+			
+			Instrument instrument = new Instrument();
+			instrument.addSample(sample);
+			if (i == 1) {
+				Envelope envelope = new Envelope();
+				envelope.addPoint(new Envelope.Point(0, 64));
+				envelope.addPoint(new Envelope.Point(20, 10));
+				envelope.addPoint(new Envelope.Point(60, 40));
+				envelope.setSustain(true, 1);
+				instrument.setVolumeEnv(envelope);
+				instrument.setFadeout(0x400);
+			}
+			song.addInstrument(instrument);
+		}
+		
+		for (int p = 0; p < 3; p++) {
+			Pattern pattern = new Pattern(song, 64);
+			for (int row = 0; row < 64; row++)
+				for (int channel = 0; channel < channels; channel++) {
+					if (p == 0 && row == 0) {
+						pattern.setData(new PatternData(49, 1 + channel%4, 0, 0, 0), row, channel);
+						continue;
+					}
+					if (random.nextInt(3) != 0) continue;
+					
+					int note = random.nextInt(10) == 0 ? 97 : 25 + random.nextInt(48);
+					int instrument = random.nextInt(5);
+					int volume = random.nextInt(4) == 0 ? 0x10 + random.nextInt(0xe0) : 0;
+					int effectType = random.nextInt(2) == 0 ? 0 : EFFECTS[random.nextInt(EFFECTS.length)];
+					int effectData = random.nextInt(256);
+					if (effectType == 14) effectData = EXTENDED_EFFECTS[random.nextInt(EXTENDED_EFFECTS.length)] << 4 | random.nextInt(16);
+					if (effectType == 9) effectData = random.nextInt(40);
+					pattern.setData(new PatternData(note, instrument, volume, effectType, effectData), row, channel);
+				}
+			song.addPattern(pattern);
+		}
+		song.setSongLength((short) 4);
+		song.setPatternOrder(new byte[] { 0, 1, 2, 1 });
+		return song;
+	}
+}
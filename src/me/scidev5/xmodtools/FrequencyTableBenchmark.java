@@ -0,0 +1,75 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools;
+
+import me.scidev5.xmodtools.player.FrequencyTable;
+
+public class FrequencyTableBenchmark {
+	
+	private static final int CALLS = 5000000;
+	private static final int RUNS = 5;
+	
+	public static void main(String[] args) {
+		// Reference: the LINEAR formula calculated directly.
+		double maxError = 0;
+		for (int note = -128; note < 260; note++)
+			for (int fineTune = -128; fineTune < 128; fineTune++) {
+				double period = FrequencyTable.LINEAR.calculatePeriod(note, (byte) fineTune);
+				double direct = 8363 * Math.pow(2.0, (4608 - period) / 768.0);
+				maxError = Math.max(maxError, Math.abs(FrequencyTable.LINEAR.calculateSampleRate(note, (byte) fineTune) / direct - 1));
+			}
+		System.out.println("LINEAR max relative error: " + maxError);
+		
+		for (int run = 0; run < RUNS; run++) {
+			System.out.printf("run %d: LINEAR %.1f ns/call, AMIGA %.1f ns/call, direct pow %.1f ns/call%n", run,
+					time(FrequencyTable.LINEAR), time(FrequencyTable.AMIGA), timeDirect());
+		}
+		// Printed so the timed loops can't be optimized away.
+		System.out.println("checksum " + sink);
+	}
+	
+	private static double sink = 0;
+	
+	/** Time calculateSampleRate over a spread of notes, finetunes and pitch bends. */
+	private static double time(FrequencyTable table) {
+		double sum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++)
+			sum += table.calculateSampleRate(i % 96 + 1, (byte) (i * 7), (i & 31) - 16);
+		long elapsed = System.nanoTime() - start;
+		sink += sum;
+		return elapsed / (double) CALLS;
+	}
+	/** Time the same LINEAR calls done without the lookup table. */
+	private static double timeDirect() {
+		double sum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			double period = Math.max(50, 7680 - (i % 96 + 1) * 64 - (byte) (i * 7) / 2.0 + ((i & 31) - 16));
+			sum += 8363 * Math.pow(2.0, (4608 - period) / 768.0);
+		}
+		long elapsed = System.nanoTime() - start;
+		sink += sum;
+		return elapsed / (double) CALLS;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.sound.sampled.AudioFormat;
+
+import me.scidev5.xmodtools.player.XMAudioController;
+
+public class ParallelRenderBenchmark {
+	
+	private static final int BLOCK = 512;
+	private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+	
+	/**
+	 * Render a generated song serially and on pools of 1 to 16 threads.
+	 * @param args [channels (default 32)] [seconds of audio per run (default 30)]
+	 */
+	public static void main(String[] args) {
+		int channels = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+		int samples = seconds * (int) format.getSampleRate();
+		System.out.println(channels + " channels, " + seconds + " s of audio per run, " + Runtime.getRuntime().availableProcessors() + " processors");
+		
+		// Warm up both paths first.
+		render(channels, format, samples / 4, null);
+		ForkJoinPool warmUp = new ForkJoinPool(2);
+		render(channels, format, samples / 4, warmUp);
+		warmUp.shutdown();
+		
+		long start = System.nanoTime();
+		short[] serial = render(channels, format, samples, null);
+		double serialTime = (System.nanoTime() - start) / 1e9;
+		System.out.printf("serial:     %6.2f s (%5.1fx realtime)%n", serialTime, seconds / serialTime);
+		
+		for (int threads : THREADS) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			start = System.nanoTime();
+			short[] parallel = render(channels, format, samples, pool);
+			double time = (System.nanoTime() - start) / 1e9;
+			pool.shutdown();
+			System.out.printf("%2d threads: %6.2f s (%5.1fx realtime, %4.2fx serial)%s%n", threads, time, seconds / time, serialTime / time,
+					Arrays.equals(serial, parallel) ? "" : " OUTPUT DIFFERS");
+		}
+	}
+	
+	private static short[] render(int channels, AudioFormat format, int samples, ForkJoinPool pool) {
+		XMAudioController controller = new XMAudioController(BenchmarkSongs.create(1, channels), format);
+		controller.setRenderPool(pool);
+		short[] out = new short[2*samples];
+		short[] dataL = new short[BLOCK];
+		short[] dataR = new short[BLOCK];
+		for (int done = 0; done + BLOCK <= samples; done += BLOCK) {
+			controller.render(dataL, dataR);
+			for (int i = 0; i < BLOCK; i++) {
+				out[2*(done+i)] = dataL[i];
+				out[2*(done+i)+1] = dataR[i];
+			}
+		}
+		return out;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools;
+
+import me.scidev5.xmodtools.data.LoopType;
+import me.scidev5.xmodtools.data.Sample;
+import me.scidev5.xmodtools.player.util.SampleInterpolation;
+
+public class PlaybackBufferBenchmark {
+	
+	private static final int POINTS = 100000;
+	private static final int READS = 4000000;
+	private static final int RUNS = 3;
+	
+	public static void main(String[] args) {
+		// Memory used by the playback buffer next to the raw data, for samples looped over their full length.
+		for (LoopType loopType : LoopType.values())
+			for (boolean is16Bit : new boolean[] { false, true })
+				for (boolean floats : new boolean[] { false, true }) {
+					Sample sample = createSample(is16Bit, loopType).setFloatCacheEnabled(floats);
+					Sample.PlaybackBuffer buffer = sample.getPlaybackBuffer();
+					long bytes = buffer.data16 != null ? 2l * buffer.data16.length : 4l * buffer.dataFloat.length;
+					System.out.printf("%-9s %2d bit%s: %7d bytes, %.2fx the raw data%n", loopType, is16Bit ? 16 : 8, floats ? " (floats)" : "         ",
+							bytes, bytes / (double) (is16Bit ? 2 * POINTS : POINTS));
+				}
+		
+		// Cost of reading one output sample from the buffer with each interpolation.
+		Sample.PlaybackBuffer buffer16 = createSample(true, LoopType.FORWARD).getPlaybackBuffer();
+		Sample.PlaybackBuffer bufferFloat = createSample(true, LoopType.FORWARD).setFloatCacheEnabled(true).getPlaybackBuffer();
+		for (int run = 0; run < RUNS; run++)
+			for (SampleInterpolation interpolation : SampleInterpolation.values())
+				System.out.printf("run %d: %-14s 16-bit %5.1f ns/read, floats %5.1f ns/read%n", run, interpolation,
+						time(interpolation, buffer16), time(interpolation, bufferFloat));
+		
+		// Printed so the timed loops can't be optimized away.
+		System.out.println("checksum " + sink);
+	}
+	
+	private static Sample createSample(boolean is16Bit, LoopType loopType) {
+		Sample sample;
+		if (is16Bit) {
+			short[] data = new short[POINTS];
+			for (int i = 0; i < POINTS; i++)
+				data[i] = (short) (Math.sin(i * 0.01) * 20000);
+			sample = new Sample(data);
+		} else {
+			byte[] data = new byte[POINTS];
+			for (int i = 0; i < POINTS; i++)
+				data[i] = (byte) (Math.sin(i * 0.01) * 100);
+			sample = new Sample(data);
+		}
+		return sample.setLoop(loopType, 0, POINTS);
+	}
+	
+	private static double sink = 0;
+	
+	/** Time reading through the buffer at a step of about 0.37 points, wrapping at the loop like the channels do. */
+	private static double time(SampleInterpolation interpolation, Sample.PlaybackBuffer buffer) {
+		long step = (long) (0.37 * (1l << 32));
+		long position = 0;
+		double sum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < READS; i++) {
+			if (position >= buffer.wrapPosition)
+				position = buffer.wrap(position);
+			int index = buffer.offset + (int) (position >>> 32);
+			double fraction = (position & 0xffffffffl) / 4294967296.0;
+			sum += buffer.data16 != null ? interpolation.apply(buffer.data16, index, fraction) : interpolation.apply(buffer.dataFloat, index, fraction);
+			position += step;
+		}
+		long elapsed = System.nanoTime() - start;
+		sink += sum;
+		return elapsed / (double) READS;
+	}
+}
@@ -123,16 +123,34 @@ public class Instrument {
 	 * @return A copy of the instrument's volume envelope.
 	 */
 	public Envelope getVolumeEnv()    { if (this.volumeEnv != null) return this.volumeEnv.copy(); else return null; }
+	/**
+	 * Copy the volume envelope into an existing envelope.
+	 * @param out The envelope to overwrite.
+	 * @return out, or null if the instrument has no volume envelope.
+	 */
+	public Envelope getVolumeEnv(Envelope out)    { if (this.volumeEnv != null) return this.volumeEnv.copyInto(out); else return null; }
 	/**
 	 * Get a copy of the panning envelope.
 	 * @return A copy of the instrument's panning envelope.
 	 */
 	public Envelope getPanningEnv()    { if (this.panningEnv != null) return this.panningEnv.copy(); else return null; }
+	/**
+	 * Copy the panning envelope into an existing envelope.
+	 * @param out The envelope to overwrite.
+	 * @return out, or null if the instrument has no panning envelope.
+	 */
+	public Envelope getPanningEnv(Envelope out)    { if (this.panningEnv != null) return this.panningEnv.copyInto(out); else return null; }
 	/**
 	 * Get a copy of the autoVibrato LFO.
 	 * @return A copy of the instrument's autoVibrato LFO.
 	 */
 	public LFO getAutoVibratoLFO()    { if (this.autoVibrato != null) return this.autoVibrato.copy(); else return null; }
+	/**
+	 * Copy the autoVibrato LFO into an existing LFO.
+	 * @param out The LFO to overwrite.
+	 * @return out, or null if the instrument has no autoVibrato.
+	 */
+	public LFO getAutoVibratoLFO(LFO out)    { if (this.autoVibrato != null) return this.autoVibrato.copyInto(out); else return null; }
 	
 	// SETTERS
 	
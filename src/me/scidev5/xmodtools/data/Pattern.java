@@ -23,10 +23,17 @@ package me.scidev5.xmodtools.data;
 
 public class Pattern {
 	
-	private PatternData[][] data;
+	/** Bytes used by each cell: note, instrument, volume, effect type, effect data. */
+	private static final int CELL_SIZE = 5;
+	
+	/** Packed cell data, row by row, CELL_SIZE bytes per cell. */
+	private byte[] data;
+	private int dataRows;
+	private int dataChannels;
 	private final Song song;
 	private int length;
 	private int channels;
+	private int modificationCount = 0;
 	
 	public Pattern(Song song, int length) throws IllegalArgumentException {
 		if (song == null) throw new IllegalArgumentException("Song was null.");
@@ -34,38 +41,110 @@ public class Pattern {
 		this.song = song;
 		this.length = length;
 		this.channels = song.getNumChannels();
-		this.data = new PatternData[this.length][this.channels];
-		for (int i = 0; i < this.length; i++) {
-			for (int j = 0; j < this.channels; j++) {
-				this.data[i][j] = new PatternData(0, 0, 0, 0, 0);
-			}
-		}
+		this.data = new byte[this.length * this.channels * CELL_SIZE];
+		this.dataRows = this.length;
+		this.dataChannels = this.channels;
+	}
+	
+	private int cellIndex(int row, int channel) throws IndexOutOfBoundsException {
+		if (row < 0 || row >= this.length) throw new IndexOutOfBoundsException("Row number out of bounds.");
+		if (channel < 0 || channel >= this.channels) throw new IndexOutOfBoundsException("Channel number out of bounds.");
+		
+		return (row * this.channels + channel) * CELL_SIZE;
 	}
+	
 	/**
-	 * Set the pattern data at a given row and channel.
+	 * Set the pattern data at a given row and channel. (The data is copied into the pattern.)
 	 * @param data The PatternData to set.
 	 * @param row The row to set at.
 	 * @param channel The channel to set at.
 	 * @throws IndexOutOfBoundsException If the row or channel is out of bounds.
 	 */
 	public void setData(PatternData data, int row, int channel) throws IndexOutOfBoundsException {
-		if (row >= this.length) throw new IndexOutOfBoundsException("Row number out of bounds.");
-		if (channel >= this.channels) throw new IndexOutOfBoundsException("Channel number out of bounds.");
+		if (data == null) throw new IllegalArgumentException("data was null.");
 		
-		this.data[row][channel] = data;
+		this.setData(data.note, data.instrument, data.volume, data.effectType, data.effectData, row, channel);
 	}
 	/**
-	 * Get the pattern data at a given row and channel.
+	 * Set the pattern data at a given row and channel.
+	 * @param note The note.
+	 * @param instrument The instrument.
+	 * @param volume The volume column.
+	 * @param effectType The effect type.
+	 * @param effectData The effect data.
+	 * @param row The row to set at.
+	 * @param channel The channel to set at.
+	 * @throws IndexOutOfBoundsException If the row or channel is out of bounds.
+	 */
+	public void setData(byte note, byte instrument, byte volume, byte effectType, byte effectData, int row, int channel) throws IndexOutOfBoundsException {
+		int i = this.cellIndex(row, channel);
+		
+		this.data[i+0] = note;
+		this.data[i+1] = instrument;
+		this.data[i+2] = volume;
+		this.data[i+3] = effectType;
+		this.data[i+4] = effectData;
+		this.modificationCount++;
+	}
+	/**
+	 * Get the pattern data at a given row and channel. 
+	 * (This is a copy, editing it does not change the pattern. Edits have to be written back with setData.)
 	 * @param row The row to look at.
 	 * @param channel The channel to look at.
-	 * @return The pattern data at the row and channel.
+	 * @return A copy of the pattern data at the row and channel.
 	 * @throws IndexOutOfBoundsException If the row or channel is out of bounds.
 	 */
 	public PatternData getData(int row, int channel) throws IndexOutOfBoundsException {
-		if (row >= this.length) throw new IndexOutOfBoundsException("Row number out of bounds.");
-		if (channel >= this.channels) throw new IndexOutOfBoundsException("Channel number out of bounds.");
+		return this.getData(row, channel, new PatternData(0, 0, 0, 0, 0));
+	}
+	/**
+	 * Copy the pattern data at a given row and channel into an existing PatternData.
+	 * @param row The row to look at.
+	 * @param channel The channel to look at.
+	 * @param out The PatternData to copy into.
+	 * @return out.
+	 * @throws IndexOutOfBoundsException If the row or channel is out of bounds.
+	 */
+	public PatternData getData(int row, int channel, PatternData out) throws IndexOutOfBoundsException {
+		int i = this.cellIndex(row, channel);
 		
-		return this.data[row][channel];
+		out.note = this.data[i+0];
+		out.instrument = this.data[i+1];
+		out.volume = this.data[i+2];
+		out.effectType = this.data[i+3];
+		out.effectData = this.data[i+4];
+		return out;
+	}
+	
+	/** Get the note at a given row and channel. */
+	public byte getNote(int row, int channel)       { return this.data[this.cellIndex(row, channel)+0]; }
+	/** Get the instrument at a given row and channel. */
+	public byte getInstrument(int row, int channel) { return this.data[this.cellIndex(row, channel)+1]; }
+	/** Get the volume column at a given row and channel. */
+	public byte getVolume(int row, int channel)     { return this.data[this.cellIndex(row, channel)+2]; }
+	/** Get the effect type at a given row and channel. */
+	public byte getEffectType(int row, int channel) { return this.data[this.cellIndex(row, channel)+3]; }
+	/** Get the effect data at a given row and channel. */
+	public byte getEffectData(int row, int channel) { return this.data[this.cellIndex(row, channel)+4]; }
+	
+	/**
+	 * Returns if the cell at a given row and channel is completely empty.
+	 * @param row The row to look at.
+	 * @param channel The channel to look at.
+	 * @return If every byte of the cell is zero.
+	 * @throws IndexOutOfBoundsException If the row or channel is out of bounds.
+	 */
+	public boolean isEmpty(int row, int channel) throws IndexOutOfBoundsException {
+		int i = this.cellIndex(row, channel);
+		return this.data[i+0] == 0 && this.data[i+1] == 0 && this.data[i+2] == 0 && this.data[i+3] == 0 && this.data[i+4] == 0;
+	}
+
+	/**
+	 * Get a number that changes every time the pattern is modified through setData or is resized.
+	 * @return The modification count.
+	 */
+	public int getModificationCount() {
+		return this.modificationCount;
 	}
 
 	/**
@@ -97,23 +176,20 @@ public class Pattern {
 	 * Make sure the size of the data array matches the pattern dimensions (rows * channels)
 	 */
 	public void resize() {
-		if (this.length == this.data.length)
-			if (this.channels == this.data[0].length) 
-				return; // Skip if no change has occurred.
+		if (this.length == this.dataRows && this.channels == this.dataChannels)
+			return; // Skip if no change has occurred.
 		
-		PatternData[][] oldData = this.data;
-		this.data = new PatternData[this.length][this.channels];
-		for (int i = 0; i < this.data.length; i++) {
-			for (int j = 0; j < this.data[i].length; j++) {
-				if (i >= oldData.length) {
-					this.data[i][j] = new PatternData(0,0,0,0,0);
-				} else if (j >= oldData[i].length) {
-					this.data[i][j] = new PatternData(0,0,0,0,0);
-				} else {
-					this.data[i][j] = oldData[i][j];
-				}
-			}
+		byte[] oldData = this.data;
+		this.data = new byte[this.length * this.channels * CELL_SIZE];
+		for (int i = 0; i < Math.min(this.length, this.dataRows); i++) {
+			System.arraycopy(
+				oldData, i * this.dataChannels * CELL_SIZE, 
+				this.data, i * this.channels * CELL_SIZE, 
+				Math.min(this.channels, this.dataChannels) * CELL_SIZE);
 		}
+		this.dataRows = this.length;
+		this.dataChannels = this.channels;
+		this.modificationCount++;
 	}
 	
 	public static class PatternData {
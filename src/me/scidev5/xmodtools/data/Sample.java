@@ -28,6 +28,9 @@ public class Sample {
 
 	protected boolean is16Bit;
 	
+	protected boolean floatCacheEnabled = false;
+	protected volatile PlaybackBuffer playbackBuffer = null;
+	
 	protected long sampleLoopStart = 0;
 	protected long sampleLoopLength = 0;
 	protected LoopType sampleLoop = LoopType.NONE;
@@ -79,6 +82,21 @@ public class Sample {
 	public byte[] getData8()      { if (!this.is16Bit) return this.sampleData8; else return null;  }
 	/** Get the 16-bit PCM data (null if 8-bit). */
 	public short[] getData16()    { if (this.is16Bit) return this.sampleData16; else return null; }
+	/** Get if the playback buffer holds normalized floats. */
+	public boolean getFloatCacheEnabled() { return this.floatCacheEnabled; }
+	
+	/**
+	 * Get the buffer used to play this sample back, building it if needed.
+	 * (Holds normalized floats instead of 16-bit values if the float cache is enabled. Building doesn't
+	 * change the sample, so threads that race to build it just get equal buffers.)
+	 * @return The playback buffer.
+	 */
+	public PlaybackBuffer getPlaybackBuffer() {
+		PlaybackBuffer buffer = this.playbackBuffer;
+		if (buffer == null)
+			this.playbackBuffer = buffer = new PlaybackBuffer(this);
+		return buffer;
+	}
 	
 	/**
 	 * Get a sample at a given index (accounting for loops)
@@ -87,27 +105,14 @@ public class Sample {
 	 */
 	public byte getSample8(long i) {
 		if (this.is16Bit) return 0;
-		
-		this.forceValidRange();
-		
-		if (i < 0) return this.sampleData8[0];
-		
-		int len = this.sampleData8.length;
-		int loopStart = (int) this.sampleLoopStart;
-		int loopLen = (int) this.sampleLoopLength;
-		
-		boolean loop = this.sampleLoop != LoopType.NONE && loopLen > 0;
-		
-		if (loop && i > loopStart) {
-			long samplesAfterLoopStart = i - loopStart;
-			long loops = samplesAfterLoopStart / (loopLen+1);
-			boolean reflectDirection = this.sampleLoop == LoopType.PING_PONG ? loops % 2 == 1 : false;
-			
-			int trueI = (int) (loopStart + (reflectDirection ? loopLen - samplesAfterLoopStart % (loopLen+1) : samplesAfterLoopStart % (loopLen+1)));
+		return this.getSample8(i, this.sampleLoop, (int) this.sampleLoopStart, (int) this.sampleLoopLength);
+	}
+	private byte getSample8(long i, LoopType loopType, int loopStart, int loopLength) {
+		int trueI = this.getDataIndex(i, loopType, loopStart, loopLength);
+		if (trueI >= 0) {
 			return this.sampleData8[trueI];
-		} else if (i < len) {
-			return this.sampleData8[(int) i];
 		} else {
+			int len = this.sampleData8.length;
 			return (byte) (Math.signum(this.sampleData8[len-1]) * Math.max(0,Math.abs(this.sampleData8[len-1])-(i-len)/10f));
 		}
 	}
@@ -118,35 +123,56 @@ public class Sample {
 	 */
 	public short getSample16(long i) {
 		if (!this.is16Bit) return 0;
+		return this.getSample16(i, this.sampleLoop, (int) this.sampleLoopStart, (int) this.sampleLoopLength);
+	}
+	private short getSample16(long i, LoopType loopType, int loopStart, int loopLength) {
+		int trueI = this.getDataIndex(i, loopType, loopStart, loopLength);
+		if (trueI >= 0) {
+			return this.sampleData16[trueI];
+		} else {
+			int len = this.sampleData16.length;
+			// The same decay as 8-bit samples, scaled up to 16 bits.
+			return (short) (Math.signum(this.sampleData16[len-1]) * Math.max(0,Math.abs(this.sampleData16[len-1])-(i-len)*25.6f));
+		}
+	}
+	/**
+	 * Find where in the PCM data a given index lands (accounting for loops).
+	 * @param i The index.
+	 * @param loopType The loop type.
+	 * @param loopStart The loop start. (Must be in the data.)
+	 * @param loopLen The loop length. (Must end in the data.)
+	 * @return The index into the data, or -1 if past the end of an unlooped sample.
+	 */
+	private int getDataIndex(long i, LoopType loopType, int loopStart, int loopLen) {
+		if (i < 0) return 0;
 		
-		this.forceValidRange();
-		
-		if (i < 0) return this.sampleData16[0];
-		
-		int len = this.sampleData16.length;
-		int loopStart = (int) this.sampleLoopStart;
-		int loopLen = (int) this.sampleLoopLength;
+		int len = this.is16Bit ? this.sampleData16.length : this.sampleData8.length;
+		// 8-bit samples have always looped over one extra point.
+		int period = this.is16Bit ? loopLen : loopLen+1;
 		
-		boolean loop = this.sampleLoop != LoopType.NONE && loopLen > 0;
+		boolean loop = loopType != LoopType.NONE && loopType != null && loopLen > 0;
 		
 		if (loop && i > loopStart) {
 			long samplesAfterLoopStart = i - loopStart;
-			long loops = samplesAfterLoopStart / loopLen;
-			boolean reflectDirection = this.sampleLoop == LoopType.PING_PONG ? loops % 2 == 1 : false;
+			long loops = samplesAfterLoopStart / period;
+			boolean reflectDirection = loopType == LoopType.PING_PONG ? loops % 2 == 1 : false;
 			
-			int trueI = (int) (loopStart + (reflectDirection ? loopLen - 1 - samplesAfterLoopStart % loopLen : samplesAfterLoopStart % loopLen));
-			return this.sampleData16[trueI];
+			return (int) (loopStart + (reflectDirection ? period - 1 - samplesAfterLoopStart % period : samplesAfterLoopStart % period));
 		} else if (i < len) {
-			return this.sampleData16[(int) i];
+			return (int) i;
 		} else {
-			return (byte) (Math.signum(this.sampleData16[len-1]) * Math.max(0,Math.abs(this.sampleData16[len-1])-(i-len)/10f));
+			return -1;
 		}
 	}
+	/** Normalize a 16-bit PCM value to the range -1 to 1. */
+	private static float normalize(short value) {
+		return (float) (((value+0x8000)/(double)0xffff)*2-1);
+	}
 
 	// SETTERS
 	
-	private int clamp(int value, int lower, int upper) { return value>upper?upper:value<lower?lower:value; }
-	private long clamp(long value, long lower, long upper) { return value>upper?upper:value<lower?lower:value; }
+	private static int clamp(int value, int lower, int upper) { return value>upper?upper:value<lower?lower:value; }
+	private static long clamp(long value, long lower, long upper) { return value>upper?upper:value<lower?lower:value; }
 	
 	/**
 	 * Clamp all values in the builder back into their intended range.
@@ -163,10 +189,7 @@ public class Sample {
 		if (this.sampleLoop == null) 
 			this.sampleLoop = LoopType.NONE;
 		
-		long dataLen = this.is16Bit?this.sampleData16.length:this.sampleData8.length;
-
-		this.sampleLoopStart = clamp(this.sampleLoopStart,0,dataLen-1);
-		this.sampleLoopLength = clamp(this.sampleLoopLength,0,dataLen-1-this.sampleLoopStart);
+		this.clampLoop();
 	}
 	
 	/**
@@ -218,6 +241,17 @@ public class Sample {
 		this.relativeNote = relativeNote;
 		return this;
 	}
+	/**
+	 * Set if the playback buffer holds normalized floats instead of 16-bit values.
+	 * (Twice the memory, but the interpolators don't have to normalize each point. The buffer is rebuilt the next time it is needed.)
+	 * @param enabled If the playback buffer should hold floats.
+	 * @return this sample.
+	 */
+	public Sample setFloatCacheEnabled(boolean enabled) {
+		this.floatCacheEnabled = enabled;
+		this.playbackBuffer = null;
+		return this;
+	}
 	/**
 	 * Set the PCM sample data of this sample.
 	 * @param data The 8-bit sample data.
@@ -228,6 +262,8 @@ public class Sample {
 		
 		this.sampleData8 = data;
 		this.is16Bit = false;
+		this.playbackBuffer = null;
+		this.clampLoop();
 		
 		return this;
 	}
@@ -241,6 +277,8 @@ public class Sample {
 		
 		this.sampleData16 = data;
 		this.is16Bit = true;
+		this.playbackBuffer = null;
+		this.clampLoop();
 		
 		return this;
 	}
@@ -254,12 +292,108 @@ public class Sample {
 		if (type == null) this.sampleLoop = LoopType.NONE;
 		else              this.sampleLoop = type;
 		
-		long dataLen = this.is16Bit?this.sampleData16.length:this.sampleData8.length;
-
-		this.sampleLoopStart = clamp(loopStart,0,dataLen-1);
-		this.sampleLoopLength = clamp(loopLength,0,dataLen-1-this.sampleLoopStart);
+		this.sampleLoopStart = loopStart;
+		this.sampleLoopLength = loopLength;
+		this.clampLoop();
+		this.playbackBuffer = null;
 		
 		return this;
 	}
+	/**
+	 * Clamp the loop to fit in the sample data, so reads never have to check it.
+	 */
+	private void clampLoop() {
+		long dataLen = this.is16Bit?this.sampleData16.length:this.sampleData8.length;
+
+		this.sampleLoopStart = clamp(this.sampleLoopStart,0,dataLen-1);
+		this.sampleLoopLength = clamp(this.sampleLoopLength,0,dataLen-1-this.sampleLoopStart);
+	}
 	
+	/**
+	 * The sample data laid out for playback: the data up to the end of one loop iteration (two for ping-pong loops,
+	 * the second reversed) with PADDING points unrolled on either side of the wrap point, so reads never have to resolve loops.
+	 * <br>
+	 * Memory: 2 bytes per point (4 with the float cache) for loopStart + span + 3*PADDING points, where the span is the
+	 * loop length, doubled for ping-pong loops. (Unlooped samples keep up to MAX_TAIL points of decay instead of the loop.)
+	 * So relative to the raw data a 16-bit sample takes about 1x (2x for a full length ping-pong loop) and an 8-bit one 2x (4x).
+	 */
+	public static class PlaybackBuffer {
+		/** Number of extra samples kept readable before and after the played range. */
+		public static final int PADDING = 8;
+		/** Longest decay to silence kept after the end of an unlooped sample. */
+		private static final int MAX_TAIL = 2048;
+		
+		/** The 16-bit (8-bit data shifted up) samples, null if the float cache is used. */
+		public final short[] data16;
+		/** The normalized samples, null if the float cache is not used. */
+		public final float[] dataFloat;
+		/** Array index of sample 0. */
+		public final int offset;
+		/** The position (32.32 fixed point) at which the cursor has to be wrapped back. */
+		public final long wrapPosition;
+		
+		private final long loopPosition;
+		private final long loopSpan;
+		
+		private PlaybackBuffer(Sample sample) {
+			int len = sample.is16Bit ? sample.sampleData16.length : sample.sampleData8.length;
+			// Clamped here rather than with forceValidRange, so building never changes the (possibly shared) sample.
+			LoopType loopType = sample.sampleLoop != null ? sample.sampleLoop : LoopType.NONE;
+			int loopStart = (int) clamp(sample.sampleLoopStart, 0, len-1);
+			int loopLen = (int) clamp(sample.sampleLoopLength, 0, len-1-loopStart);
+			int period = sample.is16Bit ? loopLen : loopLen+1;
+			
+			int end;
+			if (loopType != LoopType.NONE && loopLen > 0) {
+				int span = loopType == LoopType.PING_PONG ? 2*period : period;
+				// Wrap back to PADDING points into the loop, so points read before the cursor are from the loop too.
+				end = loopStart + PADDING + span;
+				this.loopPosition = (long) (loopStart + PADDING) << 32;
+				this.loopSpan = (long) span << 32;
+			} else {
+				// Keep the decay past the end (down to 0), then park the cursor on the silence after it.
+				float decay = len == 0 ? 0 : sample.is16Bit ? Math.abs(sample.sampleData16[len-1]) / 25.6f : Math.abs(sample.sampleData8[len-1]) * 10f;
+				end = len + (int) Math.min(MAX_TAIL, Math.ceil(decay) + 1);
+				this.loopPosition = (long) end << 32;
+				this.loopSpan = 0;
+			}
+			this.offset = PADDING;
+			this.wrapPosition = (long) end << 32;
+			
+			short[] data16 = new short[PADDING + end + PADDING];
+			int filled = this.loopSpan != 0 ? end + PADDING : end;
+			if (len > 0)
+				for (int i = -PADDING; i < filled; i++)
+					data16[PADDING+i] = sample.is16Bit ? sample.getSample16(i, loopType, loopStart, loopLen) : (short) (sample.getSample8(i, loopType, loopStart, loopLen) << 8);
+			
+			if (sample.floatCacheEnabled) {
+				float[] dataFloat = new float[data16.length];
+				for (int i = 0; i < dataFloat.length; i++)
+					dataFloat[i] = normalize(data16[i]);
+				this.data16 = null;
+				this.dataFloat = dataFloat;
+			} else {
+				this.data16 = data16;
+				this.dataFloat = null;
+			}
+		}
+		
+		/**
+		 * Bring a cursor at or past the wrap position back into the played range.
+		 * @param position The position (32.32 fixed point).
+		 * @return The equivalent position before the wrap position.
+		 */
+		public long wrap(long position) {
+			if (this.loopSpan == 0) return this.loopPosition;
+			return this.loopPosition + (position - this.loopPosition) % this.loopSpan;
+		}
+		/**
+		 * Get if a cursor has played past the decay at the end of an unlooped sample, and is parked on the silence after it.
+		 * @param position The position (32.32 fixed point).
+		 * @return If the cursor will not play anything more.
+		 */
+		public boolean isFinished(long position) {
+			return this.loopSpan == 0 && position >= this.wrapPosition;
+		}
+	}
 }
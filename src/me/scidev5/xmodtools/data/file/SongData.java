@@ -31,7 +31,6 @@ import me.scidev5.xmodtools.Constants;
 import me.scidev5.xmodtools.data.Instrument;
 import me.scidev5.xmodtools.data.LoopType;
 import me.scidev5.xmodtools.data.Pattern;
-import me.scidev5.xmodtools.data.Pattern.PatternData;
 import me.scidev5.xmodtools.data.Sample;
 import me.scidev5.xmodtools.data.Song;
 import me.scidev5.xmodtools.player.FrequencyTable;
@@ -133,7 +132,7 @@ public class SongData {
 			
 			if (i >= nRows * song.getNumChannels()) throw new Exception("Too much row data, data does not fit.");
 			
-			pattern.setData(new PatternData(note, instrument, volume, effectType, effectData), i / song.getNumChannels(), i % song.getNumChannels());
+			pattern.setData(note, instrument, volume, effectType, effectData, i / song.getNumChannels(), i % song.getNumChannels());
 			i++;
 		}
 		if (i < nRows * song.getNumChannels()) throw new Exception("Too little row data, data does not fit.");
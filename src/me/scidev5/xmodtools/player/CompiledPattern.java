@@ -0,0 +1,107 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+package me.scidev5.xmodtools.player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.scidev5.xmodtools.data.Pattern;
+import me.scidev5.xmodtools.data.Pattern.PatternData;
+import me.scidev5.xmodtools.data.Song;
+
+public class CompiledPattern {
+	private final Pattern pattern;
+	private final int modificationCount;
+	
+	private final PatternEvent[] events;
+	private final int[] rowStart;
+	
+	/**
+	 * Compile a pattern.
+	 * @param song The song the pattern belongs to (instruments are resolved from it).
+	 * @param pattern The pattern to compile.
+	 */
+	public CompiledPattern(Song song, Pattern pattern) {
+		if (song == null) throw new IllegalArgumentException("song was null.");
+		if (pattern == null) throw new IllegalArgumentException("pattern was null.");
+		
+		this.pattern = pattern;
+		this.modificationCount = pattern.getModificationCount();
+		
+		int nRows = pattern.getNRows();
+		int nChannels = song.getNumChannels();
+		
+		List<PatternEvent> events = new ArrayList<>();
+		PatternData data = new PatternData(0, 0, 0, 0, 0);
+		this.rowStart = new int[nRows + 1];
+		for (int row = 0; row < nRows; row++) {
+			this.rowStart[row] = events.size();
+			for (int channel = 0; channel < nChannels; channel++) {
+				if (!pattern.isEmpty(row, channel))
+					events.add(new PatternEvent(song, channel, pattern.getData(row, channel, data)));
+			}
+		}
+		this.rowStart[nRows] = events.size();
+		this.events = events.toArray(new PatternEvent[events.size()]);
+	}
+	
+	/**
+	 * Get the index of the first event in a row.
+	 * @param row The row.
+	 * @return The index of the row's first event.
+	 */
+	public int getRowStart(int row) {
+		return this.rowStart[row];
+	}
+	/**
+	 * Get the index after the last event in a row.
+	 * @param row The row.
+	 * @return The index after the row's last event.
+	 */
+	public int getRowEnd(int row) {
+		return this.rowStart[row + 1];
+	}
+	/**
+	 * Get an event by index. (Events are in order of row, then channel.)
+	 * @param i The index.
+	 * @return The event.
+	 */
+	public PatternEvent getEvent(int i) {
+		return this.events[i];
+	}
+	/**
+	 * Get the number of non-empty events in the pattern.
+	 * @return The number of events.
+	 */
+	public int getNumEvents() {
+		return this.events.length;
+	}
+	
+	/**
+	 * Returns if this was compiled from the given pattern and the pattern has not been modified since.
+	 * @param pattern The pattern to check against.
+	 * @return If this compiled pattern is still valid for the pattern.
+	 */
+	public boolean isCompiledFrom(Pattern pattern) {
+		return this.pattern == pattern && this.modificationCount == pattern.getModificationCount();
+	}
+}
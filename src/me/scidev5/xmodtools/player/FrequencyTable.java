@@ -21,43 +21,35 @@
 
 package me.scidev5.xmodtools.player;
 
-import java.util.function.Function;
-
 public enum FrequencyTable {
-	LINEAR((int trueNote, double fineTune) -> {
+	LINEAR((int trueNote, int fineTune) -> {
 		return 7680 - (trueNote * 64) - (fineTune / 2.0);
 	}, (double period) -> {
-		return 8363 * Math.pow(2.0,((4608 - period) / 768.0));
+		if (period < 0 || period >= Tables.LINEAR_RATES.length - 1)
+			return 8363 * Math.pow(2.0,((4608 - period) / 768.0));
+		int i = (int) period;
+		return Tables.LINEAR_RATES[i] + (Tables.LINEAR_RATES[i+1] - Tables.LINEAR_RATES[i]) * (period - i);
+	}, (int trueNote, int fineTune, double glissandoBend) -> {
+		// Every semitone is exactly 64 period units.
+		return (int) Math.ceil(Math.abs(glissandoBend) / 64);
 	}),
-	AMIGA((int trueNote, double fineTune) -> {
-		short[] periodTable = new short[] {
-			907,900,894,887,881,875,868,862,856,850,844,838,832,826,820,814,
-			808,802,796,791,785,779,774,768,762,757,752,746,741,736,730,725,
-			720,715,709,704,699,694,689,684,678,675,670,665,660,655,651,646,
-			640,636,632,628,623,619,614,610,604,601,597,592,588,584,580,575,
-			570,567,563,559,555,551,547,543,538,535,532,528,524,520,516,513,
-			508,505,502,498,494,491,487,484,480,477,474,470,467,463,460,457
-		};
-		Function<Integer,Short> indexPeriodTable = i -> {
-			if (i < 0 || i >= periodTable.length) return 0;
-			return periodTable[i];
-		};
-		double fracFineTune = fineTune/16.0-Math.floor(fineTune/16.0);
+	AMIGA((int trueNote, int fineTune) -> {
 		int v = -11;
-		return (
-			indexPeriodTable.apply((int) (((trueNote+v) % 12)*8 + Math.floor(fineTune/16.0)+0))*(1-fracFineTune)+
-			indexPeriodTable.apply((int) (((trueNote+v) % 12)*8 + Math.floor(fineTune/16.0)+1))*fracFineTune
-		) * 16.0 / Math.pow(2.0, (trueNote+v) / 12);
+		return Math.scalb(Tables.AMIGA_PERIODS[Math.floorMod(trueNote+v, 12) * 256 + fineTune + 128], -Math.floorDiv(trueNote+v, 12));
 	}, (double period) -> {
 		return 8363.0*1712.0/period;
-	});
+	}, null);
+	
+	/** The furthest number of semitones glissando will search for a note. */
+	private static final int GLISSANDO_MAX_STEPS = 1024;
 	
-
 	private CalculatePeriod calculatePeriodFunction;
 	private CalculateSampleRate calculateSampleRateFunction;
-	private FrequencyTable(CalculatePeriod calculatePeriodFunction, CalculateSampleRate calculateSampleRateFunction) {
+	private CalculateGlissandoSteps calculateGlissandoStepsFunction;
+	private FrequencyTable(CalculatePeriod calculatePeriodFunction, CalculateSampleRate calculateSampleRateFunction, CalculateGlissandoSteps calculateGlissandoStepsFunction) {
 		this.calculatePeriodFunction = calculatePeriodFunction;
 		this.calculateSampleRateFunction = calculateSampleRateFunction;
+		this.calculateGlissandoStepsFunction = calculateGlissandoStepsFunction;
 	}
 	public double calculateSampleRate(int trueNote, byte fineTune) {
 		return this.calculateSampleRateFunction.apply(this.calculatePeriod(trueNote, fineTune));
@@ -75,28 +67,102 @@ public enum FrequencyTable {
 		return Math.max(50, this.calculatePeriodFunction.apply(trueNote, fineTune) + pitchBend);
 	}
 	public double calculatePeriodGlissandoBend(int trueNote, byte fineTune, double glissandoBend, double pitchBend) {
-		double value = this.calculatePeriodFunction.apply(trueNote, fineTune);
-		if (glissandoBend > 0) {
-			int i = 0;
-			while (value - this.calculatePeriodFunction.apply(trueNote-i, fineTune) > -glissandoBend)
-				i++;
-			value = this.calculatePeriodFunction.apply(trueNote-i, fineTune);
-		} else if (glissandoBend < 0) {
-			int i = 0;
-			while (value - this.calculatePeriodFunction.apply(trueNote+i, fineTune) < -glissandoBend)
-				i++;
-			value = this.calculatePeriodFunction.apply(trueNote+i, fineTune);
-		}
+		int steps = this.calculateGlissandoSteps(trueNote, fineTune, glissandoBend);
+		double value = this.calculatePeriodFunction.apply(glissandoBend > 0 ? trueNote-steps : trueNote+steps, fineTune);
 		
 		return Math.max(50, value+pitchBend);
 	}
+	/**
+	 * Find the number of semitones to move by so the period moves by at least glissandoBend.
+	 * (Up in period, and so down in pitch, for positive glissandoBend.)
+	 */
+	private int calculateGlissandoSteps(int trueNote, int fineTune, double glissandoBend) {
+		if (glissandoBend == 0) return 0;
+		if (this.calculateGlissandoStepsFunction != null)
+			return this.calculateGlissandoStepsFunction.apply(trueNote, fineTune, glissandoBend);
+		
+		// Periods always shrink as the note goes up, so gallop out until the bend is reached and
+		// then binary search back for the closest note that reaches it.
+		double value = this.calculatePeriodFunction.apply(trueNote, fineTune);
+		int low = 0;
+		int high = 1;
+		while (high < GLISSANDO_MAX_STEPS && !this.reachesGlissandoBend(value, trueNote, fineTune, glissandoBend, high)) {
+			low = high;
+			high *= 2;
+		}
+		while (high - low > 1) {
+			int mid = (low + high) >>> 1;
+			if (this.reachesGlissandoBend(value, trueNote, fineTune, glissandoBend, mid))
+				high = mid;
+			else
+				low = mid;
+		}
+		return high;
+	}
+	private boolean reachesGlissandoBend(double value, int trueNote, int fineTune, double glissandoBend, int steps) {
+		if (glissandoBend > 0)
+			return !(value - this.calculatePeriodFunction.apply(trueNote-steps, fineTune) > -glissandoBend);
+		else
+			return !(value - this.calculatePeriodFunction.apply(trueNote+steps, fineTune) < -glissandoBend);
+	}
 
 	@FunctionalInterface
 	private interface CalculatePeriod {
-		public double apply(int trueNote, double fineTune);
+		public double apply(int trueNote, int fineTune);
 	}
 	@FunctionalInterface
 	private interface CalculateSampleRate {
 		public double apply(double period);
 	}
+	@FunctionalInterface
+	private interface CalculateGlissandoSteps {
+		public int apply(int trueNote, int fineTune, double glissandoBend);
+	}
+	
+	/**
+	 * Lookup tables shared by the frequency tables.
+	 * <br>
+	 * LINEAR sample rates are interpolated between whole periods, which stays within 2e-7
+	 * (relative) of calculating them directly. AMIGA periods are interpolated from the period
+	 * table once for every semitone and finetune.
+	 */
+	private static class Tables {
+		/** LINEAR sample rate for every whole period from 0 to 2*7680 (covers notes 0 - 119 with any finetune). */
+		static final double[] LINEAR_RATES = new double[2*7680 + 1];
+		/** AMIGA periods (before octave shift) by semitone (0 - 11) and finetune (-128 - 127). */
+		static final double[] AMIGA_PERIODS = new double[12 * 256];
+		
+		private static final short[] AMIGA_PERIOD_TABLE = new short[] {
+			907,900,894,887,881,875,868,862,856,850,844,838,832,826,820,814,
+			808,802,796,791,785,779,774,768,762,757,752,746,741,736,730,725,
+			720,715,709,704,699,694,689,684,678,675,670,665,660,655,651,646,
+			640,636,632,628,623,619,614,610,604,601,597,592,588,584,580,575,
+			570,567,563,559,555,551,547,543,538,535,532,528,524,520,516,513,
+			508,505,502,498,494,491,487,484,480,477,474,470,467,463,460,457
+		};
+		
+		static {
+			for (int i = 0; i < LINEAR_RATES.length; i++)
+				LINEAR_RATES[i] = 8363 * Math.pow(2.0,((4608 - i) / 768.0));
+			
+			for (int semitone = 0; semitone < 12; semitone++) {
+				for (int fineTune = -128; fineTune < 128; fineTune++) {
+					double fracFineTune = fineTune/16.0-Math.floor(fineTune/16.0);
+					int i = semitone*8 + Math.floorDiv(fineTune, 16);
+					AMIGA_PERIODS[semitone * 256 + fineTune + 128] = (amigaPeriod(i)*(1-fracFineTune) + amigaPeriod(i+1)*fracFineTune) * 16.0;
+				}
+			}
+		}
+		/**
+		 * Get an entry of the AMIGA period table, wrapping into the next octave off either end.
+		 * (Negative finetunes on the first semitone and high ones on the last reach past the table.)
+		 */
+		private static double amigaPeriod(int i) {
+			if (i < 0)
+				return AMIGA_PERIOD_TABLE[i + AMIGA_PERIOD_TABLE.length] * 2.0;
+			if (i >= AMIGA_PERIOD_TABLE.length)
+				return AMIGA_PERIOD_TABLE[i - AMIGA_PERIOD_TABLE.length] / 2.0;
+			return AMIGA_PERIOD_TABLE[i];
+		}
+	}
 }
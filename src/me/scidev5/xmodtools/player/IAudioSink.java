@@ -0,0 +1,57 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+package me.scidev5.xmodtools.player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+
+public interface IAudioSink {
+	/**
+	 * Prepare the sink to take audio.
+	 * @param format The format of the audio that will be written.
+	 * @throws IOException If the sink could not be opened.
+	 */
+	public void open(AudioFormat format) throws IOException;
+	/**
+	 * Write audio to the sink, blocking until all of it is taken.
+	 * @param data The audio data from its position to its limit. (The position is moved to the limit.)
+	 * @throws IOException If the data could not be written.
+	 */
+	public void write(ByteBuffer data) throws IOException;
+	/**
+	 * Get how many bytes have been written but not played/consumed yet.
+	 * (Sinks that don't buffer return 0, so the player writes to them as fast as it can render.)
+	 * @return The number of buffered bytes.
+	 */
+	public int getBufferedBytes();
+	/**
+	 * Get how many bytes the sink can buffer. (Only valid once it is open)
+	 * @return The capacity in bytes, or 0 if the sink doesn't buffer.
+	 */
+	public int getCapacity();
+	/**
+	 * Release the sink.
+	 */
+	public void close();
+}
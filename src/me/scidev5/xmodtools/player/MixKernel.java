@@ -0,0 +1,102 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+package me.scidev5.xmodtools.player;
+
+abstract class MixKernel {
+	
+	/** The kernel used by all players, picked once when first needed. */
+	static final MixKernel INSTANCE = select();
+	
+	/**
+	 * Use the Vector API kernel if it was built (from src-vector) and the jdk.incubator.vector module is available,
+	 * otherwise fall back to plain loops. (Both produce bit-identical output.)
+	 */
+	private static MixKernel select() {
+		try {
+			return (MixKernel) Class.forName("me.scidev5.xmodtools.player.VectorMixKernel").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+			return new ScalarMixKernel();
+		}
+	}
+	
+	/**
+	 * Add a block to a mix with a linearly ramping gain. (dst[i] += (gain + (index+i)*step) * src[i])
+	 * @param src The block to add.
+	 * @param srcOffset Where in the block to start.
+	 * @param dst The mix to add to.
+	 * @param dstOffset Where in the mix to start.
+	 * @param length The number of samples.
+	 * @param gain The gain at the start of the ramp.
+	 * @param step The change in gain per sample.
+	 * @param index How many samples into the ramp the block starts.
+	 */
+	abstract void mix(float[] src, int srcOffset, float[] dst, int dstOffset, int length, float gain, float step, int index);
+	/**
+	 * Add a block to a mix. (dst[i] += src[i])
+	 * @param src The block to add.
+	 * @param srcOffset Where in the block to start.
+	 * @param dst The mix to add to.
+	 * @param dstOffset Where in the mix to start.
+	 * @param length The number of samples.
+	 */
+	abstract void accumulate(float[] src, int srcOffset, float[] dst, int dstOffset, int length);
+	/**
+	 * Scale a mix, clip it to [-1, 1] and convert it to 16 bit samples.
+	 * @param mix The mix.
+	 * @param out The array for the samples.
+	 * @param offset Where in both arrays to start.
+	 * @param length The number of samples.
+	 * @param gain The gain to apply before clipping.
+	 */
+	abstract void convert(float[] mix, short[] out, int offset, int length, float gain);
+	/**
+	 * Scale a mix without clipping it.
+	 * @param mix The mix.
+	 * @param out The array for the scaled samples.
+	 * @param offset Where in both arrays to start.
+	 * @param length The number of samples.
+	 * @param gain The gain to apply.
+	 */
+	abstract void scale(float[] mix, float[] out, int offset, int length, float gain);
+	/**
+	 * Interleave left and right samples into stereo frames.
+	 * @param left The left samples.
+	 * @param right The right samples.
+	 * @param offset Where in the left and right samples to start.
+	 * @param out The array for the frames.
+	 * @param outOffset Where in the frames to start. (In samples, not frames.)
+	 * @param length The number of frames.
+	 */
+	abstract void interleave(short[] left, short[] right, int offset, short[] out, int outOffset, int length);
+	
+	/**
+	 * Adding this to a float below 2^22 rounds it to an integer held in the low bits of the mantissa.
+	 * (Vectorised float to int casts are slow, this is just an add and a subtract.)
+	 */
+	static final float ROUNDING_MAGIC = 12582912f;
+	static final int ROUNDING_MAGIC_BITS = Float.floatToRawIntBits(ROUNDING_MAGIC);
+	
+	static short toShort(float value, float gain) {
+		float sample = Math.max(-1f, Math.min(1f, value * gain)) * 32767.5f - 0.5f;
+		return (short) (Float.floatToRawIntBits(sample + ROUNDING_MAGIC) - ROUNDING_MAGIC_BITS);
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools.player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OfflineRenderer {
+	private static final int HEADER_SIZE = 44;
+	private static final int CHUNK_SIZE = 4096;
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+	
+	private final XMAudioController controller;
+	private final List<IAudioPostProcesser> postProcessers;
+	
+	private int maxLoops = 0;
+	private double maxDuration = 60*60;
+	
+	/**
+	 * Create a renderer that renders a controller as fast as possible.
+	 * @param controller The controller to render (16-bit stereo at its format's sample rate).
+	 * @throws IllegalArgumentException If the controller is null.
+	 */
+	public OfflineRenderer(XMAudioController controller) throws IllegalArgumentException {
+		if (controller == null) throw new IllegalArgumentException("controller was null.");
+		
+		this.controller = controller;
+		this.postProcessers = new ArrayList<>();
+	}
+	
+	/**
+	 * Set how many times the song may loop before rendering stops. (Default: 0, stop when the song first loops)
+	 * @param maxLoops The number of song loops to render.
+	 */
+	public void setMaxLoops(int maxLoops) {
+		this.maxLoops = Math.max(0, maxLoops);
+	}
+	/**
+	 * Get how many times the song may loop before rendering stops.
+	 * @return The number of song loops to render.
+	 */
+	public int getMaxLoops() {
+		return this.maxLoops;
+	}
+	/**
+	 * Set the longest that a render may be, for songs that never loop cleanly. (Default: 1 hour)
+	 * @param seconds The maximum duration in seconds.
+	 */
+	public void setMaxDuration(double seconds) {
+		this.maxDuration = Math.max(0, seconds);
+	}
+	/**
+	 * Get the longest that a render may be.
+	 * @return The maximum duration in seconds.
+	 */
+	public double getMaxDuration() {
+		return this.maxDuration;
+	}
+	/**
+	 * Get post processer list that can be modified to add new postProcessers.
+	 * @return The postProcesser list.
+	 */
+	public List<IAudioPostProcesser> getPostProcesserList() {
+		return this.postProcessers;
+	}
+	
+	/**
+	 * Render the song into a 16-bit stereo WAV file until it loops more than the maximum
+	 * number of times or reaches the maximum duration.
+	 * @param file The file to write. (Overwritten if it exists)
+	 * @return The number of samples written.
+	 * @throws IOException If the file could not be written.
+	 */
+	public long render(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			return this.render(channel);
+		}
+	}
+	/**
+	 * Render the song as a 16-bit stereo WAV file into a channel, starting at its current position.
+	 * @param channel The channel to write. (Must be seekable so the header can be filled in at the end)
+	 * @return The number of samples written.
+	 * @throws IOException If the channel could not be written.
+	 */
+	public long render(FileChannel channel) throws IOException {
+		XMAudioController controller = this.controller;
+		XMAudioController.State state = controller.getState();
+		
+		long headerPosition = channel.position();
+		channel.position(headerPosition + HEADER_SIZE);
+		
+		ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		short[] dataL = new short[CHUNK_SIZE];
+		short[] dataR = new short[CHUNK_SIZE];
+		short[] interleaved = new short[2*CHUNK_SIZE];
+		// A view of the same memory to copy whole chunks into. (Its position is kept in step with the buffer's.)
+		ShortBuffer shortBuffer = buffer.asShortBuffer();
+		
+		long maxSamples = (long) (this.maxDuration * controller.format.getSampleRate());
+		int loopsAtStart = state.getSongLoopCount();
+		state.setSongLoopMark(loopsAtStart + this.maxLoops + 1);
+		long written = 0;
+		
+		while (written < maxSamples) {
+			long chunkStart = controller.getSamplesRendered();
+			controller.render(dataL, dataR);
+			for (IAudioPostProcesser processer : this.postProcessers)
+				if (processer != null)
+					processer.processData(dataL, dataR);
+			
+			int length = (int) Math.min(CHUNK_SIZE, maxSamples - written);
+			boolean done = false;
+			if (state.getSongLoopCount() - loopsAtStart > this.maxLoops) {
+				// Cut the chunk off right where the first extra loop starts, even if more loops followed it in this chunk.
+				length = (int) Math.min(length, Math.max(0, state.getSongLoopMarkSample() - chunkStart));
+				done = true;
+			}
+			
+			if (buffer.remaining() < 4*length) {
+				buffer.flip();
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+				buffer.clear();
+				shortBuffer.clear();
+			}
+			MixKernel.INSTANCE.interleave(dataL, dataR, 0, interleaved, 0, length);
+			shortBuffer.put(interleaved, 0, 2*length);
+			buffer.position(2*shortBuffer.position());
+			written += length;
+			if (done) break;
+		}
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		
+		state.setSongLoopMark(-1);
+		
+		long end = channel.position();
+		channel.write(this.createHeader(written), headerPosition);
+		channel.position(end);
+		return written;
+	}
+	
+	private ByteBuffer createHeader(long samples) {
+		int sampleRate = (int) this.controller.format.getSampleRate();
+		long dataSize = Math.min(0xffffffffl - HEADER_SIZE, samples * 4);
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(new byte[] {'R','I','F','F'});
+		header.putInt((int) (dataSize + HEADER_SIZE - 8));
+		header.put(new byte[] {'W','A','V','E'});
+		header.put(new byte[] {'f','m','t',' '});
+		header.putInt(16);
+		header.putShort((short) 1); // PCM
+		header.putShort((short) 2); // Channels
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * 4); // Bytes per second
+		header.putShort((short) 4); // Bytes per sample frame
+		header.putShort((short) 16); // Bits per sample
+		header.put(new byte[] {'d','a','t','a'});
+		header.putInt((int) dataSize);
+		header.flip();
+		return header;
+	}
+}
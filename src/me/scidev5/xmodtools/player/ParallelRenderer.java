@@ -0,0 +1,201 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools.player;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+class ParallelRenderer {
+	/** The fewest channels rendered by one task, so fork/join overhead stays small next to the rendering. */
+	private static final int CHANNELS_PER_TASK = 4;
+	/** The fewest samples summed by one task of the mix. */
+	private static final int SAMPLES_PER_TASK = 256;
+	
+	private final ForkJoinPool pool;
+	private final List<XMAudioChannel> channels;
+	
+	private float[][] channelL;
+	private float[][] channelR;
+	/** If each channel was rendered into its buffer in the current segment. (Silent channels are only advanced.) */
+	private final boolean[] rendered;
+	
+	// Tasks are made once and reinitialized for every segment, so rendering doesn't allocate.
+	private final SegmentTask segmentTask = new SegmentTask();
+	private final ChannelTask[] channelTasks;
+	private final MixTask[] mixTasks;
+	
+	// The segment being rendered.
+	private float[] mixL;
+	private float[] mixR;
+	private int offset;
+	private int length;
+	/** How many of the mix tasks the segment is split between. */
+	private int mixParts;
+	
+	/**
+	 * Create a renderer that spreads channels over a pool.
+	 * @param pool The pool to render on.
+	 * @param channels The channels to render.
+	 */
+	ParallelRenderer(ForkJoinPool pool, List<XMAudioChannel> channels) {
+		this.pool = pool;
+		this.channels = channels;
+		this.channelL = new float[channels.size()][0];
+		this.channelR = new float[channels.size()][0];
+		this.rendered = new boolean[channels.size()];
+		
+		// One group of channels for each thread, as long as every group gets enough channels.
+		int groups = Math.max(1, Math.min(pool.getParallelism(), channels.size() / CHANNELS_PER_TASK));
+		this.channelTasks = new ChannelTask[groups];
+		for (int i = 0; i < groups; i++)
+			this.channelTasks[i] = new ChannelTask(i * channels.size() / groups, (i+1) * channels.size() / groups);
+		this.mixTasks = new MixTask[groups];
+		for (int i = 0; i < groups; i++)
+			this.mixTasks[i] = new MixTask(i);
+	}
+	
+	ForkJoinPool getPool() {
+		return this.pool;
+	}
+	
+	/**
+	 * Render all channels into their own buffers in parallel, then add them into the mix in channel order.
+	 * (The same additions in the same order as rendering serially, so the output is bit-identical.)
+	 * @param mixL The left mix buffer.
+	 * @param mixR The right mix buffer.
+	 * @param offset Where in the mix buffers the segment starts.
+	 * @param length The length of the segment.
+	 * @return The number of channels that were audible.
+	 */
+	int renderSegment(float[] mixL, float[] mixR, int offset, int length) {
+		if (this.channelL[0].length < length) {
+			for (int i = 0; i < this.channelL.length; i++) {
+				this.channelL[i] = new float[length];
+				this.channelR[i] = new float[length];
+			}
+		}
+		this.mixL = mixL;
+		this.mixR = mixR;
+		this.offset = offset;
+		this.length = length;
+		this.mixParts = Math.max(1, Math.min(this.mixTasks.length, length / SAMPLES_PER_TASK));
+		
+		if (this.channelTasks.length == 1) {
+			// Nothing to spread out, so skip the pool.
+			this.channelTasks[0].compute();
+			this.mixTasks[0].compute();
+		} else {
+			this.segmentTask.reinitialize();
+			this.pool.invoke(this.segmentTask);
+		}
+		
+		this.mixL = null;
+		this.mixR = null;
+		int activeVoices = 0;
+		for (boolean rendered : this.rendered)
+			if (rendered) activeVoices++;
+		return activeVoices;
+	}
+	
+	/** Fork the first count tasks but the first, run the first here and wait for the rest. */
+	private static void runAll(RecursiveAction[] tasks, int count) {
+		for (int i = 1; i < count; i++) {
+			tasks[i].reinitialize();
+			tasks[i].fork();
+		}
+		tasks[0].reinitialize();
+		tasks[0].invoke();
+		for (int i = count - 1; i > 0; i--)
+			tasks[i].join();
+	}
+	
+	/** Renders the channels, then mixes them, in one invoke per segment. */
+	private class SegmentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected void compute() {
+			runAll(ParallelRenderer.this.channelTasks, ParallelRenderer.this.channelTasks.length);
+			runAll(ParallelRenderer.this.mixTasks, ParallelRenderer.this.mixParts);
+		}
+	}
+	private class ChannelTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int start, end;
+		
+		ChannelTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			int length = ParallelRenderer.this.length;
+			for (int i = this.start; i < this.end; i++) {
+				XMAudioChannel channel = ParallelRenderer.this.channels.get(i);
+				boolean audible = channel.isAudible();
+				ParallelRenderer.this.rendered[i] = audible;
+				if (!audible) {
+					channel.skipBlock(length);
+					continue;
+				}
+				float[] bufL = ParallelRenderer.this.channelL[i];
+				float[] bufR = ParallelRenderer.this.channelR[i];
+				Arrays.fill(bufL, 0, length, 0f);
+				Arrays.fill(bufR, 0, length, 0f);
+				channel.renderBlock(bufL, bufR, 0, length);
+			}
+		}
+	}
+	private class MixTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		/** Which part of the segment this task mixes, out of mixParts. */
+		private final int part;
+		
+		MixTask(int part) {
+			this.part = part;
+		}
+		
+		@Override
+		protected void compute() {
+			int length = ParallelRenderer.this.length;
+			int parts = ParallelRenderer.this.mixParts;
+			int start = this.part * length / parts;
+			int end = (this.part+1) * length / parts;
+			
+			// Add every rendered channel into the mix, in channel order.
+			float[][] channelL = ParallelRenderer.this.channelL;
+			float[][] channelR = ParallelRenderer.this.channelR;
+			int offset = ParallelRenderer.this.offset;
+			for (int c = 0; c < channelL.length; c++) {
+				if (!ParallelRenderer.this.rendered[c]) continue;
+				MixKernel.INSTANCE.accumulate(channelL[c], start, ParallelRenderer.this.mixL, offset + start, end - start);
+				MixKernel.INSTANCE.accumulate(channelR[c], start, ParallelRenderer.this.mixR, offset + start, end - start);
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+package me.scidev5.xmodtools.player;
+
+import me.scidev5.xmodtools.Constants;
+import me.scidev5.xmodtools.data.Instrument;
+import me.scidev5.xmodtools.data.Pattern.PatternData;
+import me.scidev5.xmodtools.data.Song;
+import me.scidev5.xmodtools.player.util.EffectType;
+
+public class PatternEvent {
+	// The raw cell, copied so the decoded fields below can't go out of sync with it.
+	/** The note column. */
+	public final byte note;
+	/** The instrument column. */
+	public final byte instrument;
+	/** The volume column. */
+	public final byte volume;
+	/** The effect type column. */
+	public final byte effectType;
+	/** The effect data column. */
+	public final byte effectData;
+	
+	/** The channel the event plays on. */
+	public final int channel;
+	/** The decoded effect (null if the effect does not exist). */
+	public final EffectType effect;
+	/** The effect parameter (with the upper nibble removed for extended effects). */
+	public final int effectParameter;
+	/** The instrument the event plays (null if none or invalid). */
+	public final Instrument instrumentRef;
+	/** If the note is a playable note (not empty or key off). */
+	public final boolean noteValid;
+	/** If the note will play on the first tick of the row. */
+	public final boolean playsImmediately;
+	/** If the note is the target of a note portamento. */
+	public final boolean notePorta;
+	/** If the effect should still run when the note is triggered late (note delay). */
+	public final boolean runsOnLateTrigger;
+	
+	/**
+	 * Decode a cell of pattern data.
+	 * @param song The song to resolve the instrument from.
+	 * @param channel The channel the cell is on.
+	 * @param data The pattern data to decode.
+	 */
+	public PatternEvent(Song song, int channel, PatternData data) {
+		this.note = data.note;
+		this.instrument = data.instrument;
+		this.volume = data.volume;
+		this.effectType = data.effectType;
+		this.effectData = data.effectData;
+		
+		this.channel = channel;
+		this.effect = EffectType.get(data.effectType, data.effectData);
+		this.effectParameter = this.effect != null ? this.effect.getParameter(data.effectData) : 0;
+		this.instrumentRef = song.getInstrument(data.instrument-1);
+		this.noteValid = data.note >= Constants.NOTE_FIRST && data.note < Constants.NOTE_FIRST + Constants.NOTE_COUNT;
+		this.playsImmediately = canNotePlayImmediately(data);
+		this.notePorta = isNotePorta(data);
+		
+		EffectType type = this.effect;
+		this.runsOnLateTrigger = 
+			type == EffectType.SET_PANNING || 
+			type == EffectType.SET_PANNING_EXTCMD || 
+			type == EffectType.SET_FINETUNE || 
+			type == EffectType.SET_VOLUME || 
+			type == EffectType.SAMPLE_OFFSET || 
+			type == EffectType.PORTA_DOWN_FINE || 
+			type == EffectType.PORTA_EXTRA_FINE_DOWN ||
+			type == EffectType.PORTA_EXTRA_FINE_UP || 
+			type == EffectType.PORTA_UP_FINE || 
+			type == EffectType.VOLUME_SLIDE_FINE_DOWN || 
+			type == EffectType.VOLUME_SLIDE_FINE_UP;
+	}
+	
+	/**
+	 * Returns true if the PatternData provided will result in a note playing on the first tick.
+	 * @param data The PatternData to examine.
+	 * @return If a note will play immediately given the PatternData data.
+	 */
+	public static boolean canNotePlayImmediately(PatternData data) {
+		return data.effectType != 3 && data.effectType != 5 && 
+			!(data.effectType == 20 && data.effectData == 0) && 
+			!(data.effectType == 14 && ((data.effectData & 0xff) == 0xC0 || (data.effectData & 0xf0) == 0xd0 && (data.effectData & 0xf) > 0)) && 
+			(data.volume & 0xF0) != 0xF0;
+	}
+	/**
+	 * Returns True if the note playing will result in note to note portamento.
+	 * @param data The PatternData to examine.
+	 * @return If the note playing will result in note to note portamento.
+	 */
+	public static boolean isNotePorta(PatternData data) {
+		return data.note >= Constants.NOTE_FIRST && data.note < Constants.NOTE_FIRST + Constants.NOTE_COUNT && 
+	    	(data.effectType == 3 || data.effectType == 5 || (data.volume & 0xF0) == 0xF0);
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.scidev5.xmodtools.data.Pattern.PatternData;
+
+public class PlaybackCommand {
+	
+	public enum Type {
+		/** Start playing a row right away. */
+		SEEK,
+		/** Play a row once the current row is over. */
+		JUMP,
+		/** Change the bpm and speed. (Takes effect from the next tick.) */
+		TEMPO,
+		/** Mute or unmute a channel. */
+		MUTE,
+		/** Change the global volume. (Ramps like the set global volume effect.) */
+		GLOBAL_VOLUME,
+		/** Play a cell of pattern data on a channel right away. */
+		TRIGGER;
+	}
+	
+	/** Posting order, so commands for the same sample run in the order they were made. */
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+	
+	public final Type type;
+	/** The sample (in XMAudioController.getSamplesRendered() terms) to run the command at. Earlier samples run as soon as possible. */
+	public final long sample;
+	final long sequence;
+	
+	final int channel;
+	final int value1;
+	final int value2;
+	final PatternData data;
+	
+	private PlaybackCommand(Type type, long sample, int channel, int value1, int value2, PatternData data) {
+		this.type = type;
+		this.sample = sample;
+		this.sequence = SEQUENCE.getAndIncrement();
+		this.channel = channel;
+		this.value1 = value1;
+		this.value2 = value2;
+		this.data = data;
+	}
+	
+	/**
+	 * Start playing a row right away.
+	 * @param sample The sample to seek at.
+	 * @param patternTableIndex The index in the pattern table to play.
+	 * @param row The row to start at.
+	 * @return The command.
+	 * @throws IllegalArgumentException If the position is negative.
+	 */
+	public static PlaybackCommand seek(long sample, int patternTableIndex, int row) throws IllegalArgumentException {
+		if (patternTableIndex < 0 || row < 0) throw new IllegalArgumentException("Position was negative.");
+		return new PlaybackCommand(Type.SEEK, sample, -1, patternTableIndex, row, null);
+	}
+	/**
+	 * Play a row once the current row is over (like the pattern jump and break effects).
+	 * @param sample The sample to set the next row at.
+	 * @param patternTableIndex The index in the pattern table to play.
+	 * @param row The row to start at.
+	 * @return The command.
+	 * @throws IllegalArgumentException If the position is negative.
+	 */
+	public static PlaybackCommand jump(long sample, int patternTableIndex, int row) throws IllegalArgumentException {
+		if (patternTableIndex < 0 || row < 0) throw new IllegalArgumentException("Position was negative.");
+		return new PlaybackCommand(Type.JUMP, sample, -1, patternTableIndex, row, null);
+	}
+	/**
+	 * Change the tempo. (The tick already playing keeps its length.)
+	 * @param sample The sample to change the tempo at.
+	 * @param bpm Tick speed: 2500ms / bpm. (Range: $20 - $ff)
+	 * @param speed Number of ticks per row. (Range: $1 - $1f)
+	 * @return The command.
+	 * @throws IllegalArgumentException If the bpm or speed is out of range.
+	 */
+	public static PlaybackCommand tempo(long sample, int bpm, int speed) throws IllegalArgumentException {
+		if (bpm < 0x20 || bpm > 0xff) throw new IllegalArgumentException("bpm was out of range.");
+		if (speed < 1 || speed > 0x1f) throw new IllegalArgumentException("speed was out of range.");
+		return new PlaybackCommand(Type.TEMPO, sample, -1, bpm, speed, null);
+	}
+	/**
+	 * Mute or unmute a channel. (The channel keeps playing silently, and fades in or out quickly.)
+	 * @param sample The sample to mute or unmute at.
+	 * @param channel The channel to mute.
+	 * @param muted If the channel should be muted.
+	 * @return The command.
+	 * @throws IllegalArgumentException If the channel is negative.
+	 */
+	public static PlaybackCommand mute(long sample, int channel, boolean muted) throws IllegalArgumentException {
+		if (channel < 0) throw new IllegalArgumentException("channel was negative.");
+		return new PlaybackCommand(Type.MUTE, sample, channel, muted ? 1 : 0, 0, null);
+	}
+	/**
+	 * Change the global volume.
+	 * @param sample The sample to change the volume at.
+	 * @param volume The global volume. (Range: $0 - $40)
+	 * @return The command.
+	 * @throws IllegalArgumentException If the volume is out of range.
+	 */
+	public static PlaybackCommand globalVolume(long sample, int volume) throws IllegalArgumentException {
+		if (volume < 0 || volume > 0x40) throw new IllegalArgumentException("volume was out of range.");
+		return new PlaybackCommand(Type.GLOBAL_VOLUME, sample, -1, volume, 0, null);
+	}
+	/**
+	 * Play a cell of pattern data on a channel right away. (As if it was triggered late by a note delay.)
+	 * @param sample The sample to play it at.
+	 * @param channel The channel to play it on.
+	 * @param data The pattern data to play. (Copied, so it can be reused.)
+	 * @return The command.
+	 * @throws IllegalArgumentException If the channel is negative or data is null.
+	 */
+	public static PlaybackCommand trigger(long sample, int channel, PatternData data) throws IllegalArgumentException {
+		if (channel < 0) throw new IllegalArgumentException("channel was negative.");
+		if (data == null) throw new IllegalArgumentException("data was null.");
+		PatternData copy = new PatternData(data.note, data.instrument, data.volume, data.effectType, data.effectData);
+		return new PlaybackCommand(Type.TRIGGER, sample, channel, 0, 0, copy);
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools.player;
+
+public class PlaybackSnapshot {
+	// POSITION
+	long sample;
+	int patternTableIndex;
+	int pattern;
+	int row;
+	int tick;
+	
+	// TEMPO AND VOLUME
+	int bpm;
+	int speed;
+	int globalVolume;
+	
+	// CHANNELS
+	final int[] note;
+	final int[] instrument;
+	final float[] volume;
+	final float[] panning;
+	final int[] volumeEnvelopePosition;
+	final int[] panningEnvelopePosition;
+	
+	/**
+	 * Create an empty snapshot to read into.
+	 * @param channels The number of channels of the controller it will be read from.
+	 */
+	public PlaybackSnapshot(int channels) {
+		this.note = new int[channels];
+		this.instrument = new int[channels];
+		this.volume = new float[channels];
+		this.panning = new float[channels];
+		this.volumeEnvelopePosition = new int[channels];
+		this.panningEnvelopePosition = new int[channels];
+	}
+	
+	void copyFrom(PlaybackSnapshot other) {
+		this.sample = other.sample;
+		this.patternTableIndex = other.patternTableIndex;
+		this.pattern = other.pattern;
+		this.row = other.row;
+		this.tick = other.tick;
+		this.bpm = other.bpm;
+		this.speed = other.speed;
+		this.globalVolume = other.globalVolume;
+		System.arraycopy(other.note, 0, this.note, 0, this.note.length);
+		System.arraycopy(other.instrument, 0, this.instrument, 0, this.instrument.length);
+		System.arraycopy(other.volume, 0, this.volume, 0, this.volume.length);
+		System.arraycopy(other.panning, 0, this.panning, 0, this.panning.length);
+		System.arraycopy(other.volumeEnvelopePosition, 0, this.volumeEnvelopePosition, 0, this.volumeEnvelopePosition.length);
+		System.arraycopy(other.panningEnvelopePosition, 0, this.panningEnvelopePosition, 0, this.panningEnvelopePosition.length);
+	}
+	
+	/**
+	 * Get the sample the tick started at.
+	 * @return The sample, in XMAudioController.getSamplesRendered() terms.
+	 */
+	public long getSample() { return this.sample; }
+	/**
+	 * Get the index in the pattern table.
+	 * @return The patternTableIndex.
+	 */
+	public int getPatternTableIndex() { return this.patternTableIndex; }
+	/**
+	 * Get the index of the playing pattern.
+	 * @return The index of the playing pattern.
+	 */
+	public int getPatternIndex() { return this.pattern; }
+	/**
+	 * Get the row in the pattern.
+	 * @return The row.
+	 */
+	public int getRow() { return this.row; }
+	/**
+	 * Get the tick in the row.
+	 * @return The tick.
+	 */
+	public int getTick() { return this.tick; }
+	/** 
+	 * Get the bpm. 
+	 * @return Tick speed: 2500ms / bpm. (Range: $20 - $ff) 
+	 */
+	public int getBPM() { return this.bpm; }
+	/** 
+	 * Get the speed. 
+	 * @return Number of ticks per row. (Range: $0 - $1f) 
+	 */
+	public int getSpeed() { return this.speed; }
+	/**
+	 * Get the global volume.
+	 * @return The global volume. (Range: $0 - $40)
+	 */
+	public int getGlobalVolume() { return this.globalVolume; }
+	
+	/**
+	 * Get the number of channels.
+	 * @return The number of channels.
+	 */
+	public int getNumChannels() { return this.note.length; }
+	/**
+	 * Get the note a channel is playing.
+	 * @param channel The channel.
+	 * @return The note (0 is C-0, with the sample's relative note applied), or -1 if the channel has no sample.
+	 */
+	public int getNote(int channel) { return this.note[channel]; }
+	/**
+	 * Get the instrument a channel last played.
+	 * @param channel The channel.
+	 * @return The instrument number, or 0 if none has played.
+	 */
+	public int getInstrument(int channel) { return this.instrument[channel]; }
+	/**
+	 * Get the volume of a channel, after envelopes, fadeout and tremolo.
+	 * @param channel The channel.
+	 * @return The volume. (1 is full volume, tremolo can push it past that.)
+	 */
+	public float getVolume(int channel) { return this.volume[channel]; }
+	/**
+	 * Get the panning of a channel, after its envelope.
+	 * @param channel The channel.
+	 * @return The panning. (-1 -> left; 1 -> right)
+	 */
+	public float getPanning(int channel) { return this.panning[channel]; }
+	/**
+	 * Get the position of a channel's volume envelope.
+	 * @param channel The channel.
+	 * @return The envelope frame, or -1 if the channel has no volume envelope.
+	 */
+	public int getVolumeEnvelopePosition(int channel) { return this.volumeEnvelopePosition[channel]; }
+	/**
+	 * Get the position of a channel's panning envelope.
+	 * @param channel The channel.
+	 * @return The envelope frame, or -1 if the channel has no panning envelope.
+	 */
+	public int getPanningEnvelopePosition(int channel) { return this.panningEnvelopePosition[channel]; }
+}
@@ -21,13 +21,18 @@
 
 package me.scidev5.xmodtools.player;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.SourceDataLine;
+
+import me.scidev5.xmodtools.player.sink.SourceDataLineSink;
 
 public class PlayerThread extends Thread {
 	
@@ -35,30 +40,95 @@ public class PlayerThread extends Thread {
 	private final int FRAME_SIZE;
 	private final int FRAME_BUFFER_SIZE;
 	private final float FRAME_RATE;
+	/** Bytes of one frame in the output format. */
+	private final int FRAME_BYTES;
+	
+	/** The fewest frames the adaptive buffering will keep queued. */
+	private static final int MIN_BUFFER_FRAMES = 2;
+	/** Seconds without trouble before the adaptive buffering tries a frame less. */
+	private static final float SHRINK_SECONDS = 2f;
 	
-	private boolean running = true;
-	private boolean ended = false;
+	private volatile int bufferFrames;
+	private final int maxBufferFrames;
+	/** The most frames the open sink can hold ahead while still taking a whole frame without blocking. */
+	private volatile int sinkFrames = Integer.MAX_VALUE;
+	private volatile boolean adaptiveBuffering = true;
+	private volatile int underruns = 0;
+	private volatile long renderNanos = 0;
+	private int stableFrames = 0;
+	
+	private volatile boolean running = true;
+	private volatile boolean ended = false;
 	private AudioFormat audioFormat = null;
+	private IAudioSink sink = null;
 	
+	private List<IFloatAudioPostProcesser> floatPostProcessers;
 	private List<IAudioPostProcesser> postProcessers;
 	
 	private XMAudioController controller = null;
 	
+	// Frame buffers, reused for every frame so steady state playback doesn't allocate.
+	private final float[] floatL;
+	private final float[] floatR;
+	private final short[] dataL;
+	private final short[] dataR;
+	private final ByteBuffer frameBuffer;
+	// Interleaved samples, only the ones for the output format are allocated.
+	private final short[] interleaved;
+	private final ShortBuffer frameShorts;
+	private final float[] interleavedFloat;
+	private final FloatBuffer frameFloats;
+	private final byte[] interleavedBytes;
+	
 	/**
 	 * Construct a new playerThread with custom audio parameters.
 	 * @param sampleRate The rate at which samples are generated and played. (Default: 44100)
 	 * @param frameSize The size of each frame. Smaller = little to no delay, inefficient; Larger = more delay, but more efficient. (Default: 512)
-	 * @param frameBufferSize The amount of frames to buffer ahead so the sourceDataLine does not run empty. (Same tradeoffs as frameSize, default: 5)
+	 * @param frameBufferSize The amount of frames to buffer ahead so the sourceDataLine does not run empty. (Same tradeoffs as frameSize, default: 5, adapted while playing unless adaptive buffering is off)
 	 */
 	public PlayerThread(float sampleRate, int frameSize, int frameBufferSize) {
-		this.SAMPLE_RATE = sampleRate;
+		this(new AudioFormat(sampleRate,16,2,true,false), frameSize, frameBufferSize);
+	}
+	/**
+	 * Construct a new playerThread with a custom output format. Audio is rendered and post processed as
+	 * floats and only quantized once when it is written out.
+	 * @param format The format to play in. (Stereo, and either 16 or 24 bit signed PCM or 32 bit float PCM.)
+	 * @param frameSize The size of each frame. Smaller = little to no delay, inefficient; Larger = more delay, but more efficient. (Default: 512)
+	 * @param frameBufferSize The amount of frames to buffer ahead so the sourceDataLine does not run empty. (Same tradeoffs as frameSize, default: 5, adapted while playing unless adaptive buffering is off)
+	 * @throws IllegalArgumentException If the format is not supported.
+	 */
+	public PlayerThread(AudioFormat format, int frameSize, int frameBufferSize) throws IllegalArgumentException {
+		if (format == null) throw new IllegalArgumentException("format was null.");
+		int bits = format.getSampleSizeInBits();
+		boolean isFloat = format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT);
+		boolean isSigned = format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED);
+		if (format.getChannels() != 2 || !(isFloat && bits == 32 || isSigned && (bits == 16 || bits == 24)))
+			throw new IllegalArgumentException("Unsupported audio format: " + format);
+		
+		this.SAMPLE_RATE = format.getSampleRate();
 		this.FRAME_SIZE = frameSize;
 		this.FRAME_BUFFER_SIZE = frameBufferSize;
+		this.bufferFrames = Math.max(MIN_BUFFER_FRAMES, frameBufferSize);
+		this.maxBufferFrames = Math.max(4 * this.bufferFrames, 16);
 		this.FRAME_RATE = this.SAMPLE_RATE/this.FRAME_SIZE;
+		this.FRAME_BYTES = 2 * (bits / 8);
 		
-		this.audioFormat = new AudioFormat(SAMPLE_RATE,16,2,true,false);
+		this.audioFormat = format;
 		
+		this.floatPostProcessers = new ArrayList<>();
 		this.postProcessers = new ArrayList<>();
+		
+		this.floatL = new float[FRAME_SIZE];
+		this.floatR = new float[FRAME_SIZE];
+		this.dataL = new short[FRAME_SIZE];
+		this.dataR = new short[FRAME_SIZE];
+		this.frameBuffer = ByteBuffer.allocateDirect(FRAME_BYTES*FRAME_SIZE)
+				.order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		this.interleaved = bits == 16 ? new short[2*FRAME_SIZE] : null;
+		this.frameShorts = bits == 16 ? this.frameBuffer.asShortBuffer() : null;
+		this.interleavedFloat = isFloat ? new float[2*FRAME_SIZE] : null;
+		this.frameFloats = isFloat ? this.frameBuffer.asFloatBuffer() : null;
+		this.interleavedBytes = bits == 24 ? new byte[6*FRAME_SIZE] : null;
 	}
 	/**
 	 * Construct a new playerThread with custom sample rate. (Frame size and rate are defaulted to 512 and 5 respectively).
@@ -83,6 +153,22 @@ public class PlayerThread extends Thread {
 		this.controller = controller;
 	}
 	
+	/**
+	 * Set where the rendered audio is written. (Must be set before the thread is started,
+	 * defaults to a SourceDataLineSink playing through the default audio device.)
+	 * @param sink The sink to write audio to.
+	 */
+	public void setSink(IAudioSink sink) {
+		this.sink = sink;
+	}
+	/**
+	 * Get where the rendered audio is written.
+	 * @return The sink, or null if the default sink is used.
+	 */
+	public IAudioSink getSink() {
+		return this.sink;
+	}
+	
 	/**
 	 * Get the audio format 
 	 * @return
@@ -93,80 +179,171 @@ public class PlayerThread extends Thread {
 	
 	/**
 	 * Get post processer list that can be modified to add new postProcessers.
+	 * (These run on 16 bit samples after the float postProcessers, so with other formats they reduce the output to 16 bit precision.)
 	 * @return The postProcesser list.
 	 */
 	public List<IAudioPostProcesser> getPostProcesserList() {
 		return this.postProcessers;
 	}
+	/**
+	 * Get the list of float post processers, which run on the unclipped float output of the controller.
+	 * @return The float postProcesser list.
+	 */
+	public List<IFloatAudioPostProcesser> getFloatPostProcesserList() {
+		return this.floatPostProcessers;
+	}
 	
 	@Override
 	public void run() {
+		IAudioSink sink = this.sink != null ? this.sink : new SourceDataLineSink();
 		try {
-			SourceDataLine sourceDataLine = AudioSystem.getSourceDataLine(this.audioFormat);
-			byte[] buffer = new byte[4*FRAME_SIZE];
-			sourceDataLine.open();
-			sourceDataLine.start();
-			final int fullSize = sourceDataLine.getBufferSize();
-			outer:
-			while (true) {
-				while (fullSize - sourceDataLine.available() < FRAME_BUFFER_SIZE*4*FRAME_SIZE && this.running) {
-					renderFrame(buffer);
-					sourceDataLine.write(buffer, 0, 4*FRAME_SIZE);
+			sink.open(this.audioFormat);
+			final double bytesPerNano = FRAME_BYTES * SAMPLE_RATE / 1e9;
+			final long frameNanos = (long) (1e9 / FRAME_RATE);
+			// Otherwise a sink smaller than the buffering asks for would never fill up to the low water mark, so it could never count as primed.
+			int capacity = sink.getCapacity();
+			this.sinkFrames = capacity > 0 ? Math.max(1, capacity / (FRAME_BYTES * FRAME_SIZE) - 1) : Integer.MAX_VALUE;
+			// Only a sink that has been filled up can underrun, so startup, pauses and non buffering sinks aren't counted.
+			boolean primed = false;
+			while (!this.ended) {
+				if (!this.running) {
+					primed = false;
+					LockSupport.park(this);
+					continue;
 				}
-				while (this.running && fullSize-sourceDataLine.available() > FRAME_BUFFER_SIZE*4*FRAME_SIZE) {
-					try {
-						Thread.sleep((long)(1000/FRAME_RATE) + 1);
-					} catch (InterruptedException e) {
-						if (this.ended) break outer;
-						if (!this.running) break;
-					}
+				
+				int buffered = sink.getBufferedBytes();
+				int lowWater = Math.min(this.bufferFrames, this.sinkFrames) * FRAME_BYTES * FRAME_SIZE;
+				if (primed && buffered == 0) {
+					this.underruns++;
+					primed = false;
+					adaptBuffering(true);
+				} else if (buffered >= lowWater) {
+					primed = true;
 				}
-				while (!this.running) {
-					try {
-						Thread.sleep(10000l);
-					} catch (InterruptedException e) {
-						if (this.ended) break outer;
-						if (this.running) break;
-					}
+				
+				// Wake up when the buffer is about to drop below the low water mark, early enough to render the next frame.
+				// (Checked at least once a frame, in case the sink is drained faster than it plays.)
+				long wait = (long) ((buffered - lowWater) / bytesPerNano) - this.renderNanos;
+				if (wait > 0) {
+					// Parked rather than slept, because interrupting would close interruptible channel sinks.
+					LockSupport.parkNanos(this, Math.min(wait, frameNanos));
+					continue;
 				}
 				
+				long start = System.nanoTime();
+				renderFrame();
+				long elapsed = System.nanoTime() - start;
+				// Follows slow frames straight away but only slowly forgets them.
+				this.renderNanos = elapsed > this.renderNanos ? elapsed : this.renderNanos + (elapsed - this.renderNanos) / 16;
+				sink.write(this.frameBuffer);
+				adaptBuffering(false);
 			}
-			sourceDataLine.close();
-		} catch (LineUnavailableException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 		} finally {
+			sink.close();
 			this.running = false;
 			this.ended = true;
 		}
 	}
 
-	private void transferFrame(short[] inDataL, short[] inDataR, byte[] buffer) {
-		if (inDataL.length != FRAME_SIZE) throw new IllegalArgumentException();
-		if (inDataR.length != FRAME_SIZE) throw new IllegalArgumentException();
-		if (buffer.length != FRAME_SIZE*4) throw new IllegalArgumentException();
+	/**
+	 * Quantize the frame to the output format and put it in the frame buffer.
+	 * @param quantized If the frame is already in dataL and dataR as 16 bit samples.
+	 */
+	private void transferFrame(boolean quantized) {
+		if (this.interleaved != null) {
+			if (!quantized) {
+				MixKernel.INSTANCE.convert(this.floatL, this.dataL, 0, FRAME_SIZE, 1f);
+				MixKernel.INSTANCE.convert(this.floatR, this.dataR, 0, FRAME_SIZE, 1f);
+			}
+			MixKernel.INSTANCE.interleave(this.dataL, this.dataR, 0, this.interleaved, 0, FRAME_SIZE);
+			
+			this.frameShorts.clear();
+			this.frameShorts.put(this.interleaved);
+			this.frameBuffer.clear();
+			return;
+		}
 		
-		final int volume = 0;
+		if (quantized) {
+			for (int i = 0; i < FRAME_SIZE; i++) {
+				this.floatL[i] = (this.dataL[i] + 0.5f) / 32767.5f;
+				this.floatR[i] = (this.dataR[i] + 0.5f) / 32767.5f;
+			}
+		}
 		
-		for (int i = 0; i < FRAME_SIZE; i++) {
-			buffer[4*i+0] = (byte) ((inDataL[i]>>(0+volume)) & 0xff);
-			buffer[4*i+1] = (byte) ((inDataL[i]>>(8+volume)) & 0xff);
-			
-			buffer[4*i+2] = (byte) ((inDataR[i]>>(0+volume)) & 0xff);
-			buffer[4*i+3] = (byte) ((inDataR[i]>>(8+volume)) & 0xff);
+		if (this.interleavedFloat != null) {
+			float[] interleaved = this.interleavedFloat;
+			for (int i = 0; i < FRAME_SIZE; i++) {
+				interleaved[2*i]   = Math.max(-1f, Math.min(1f, this.floatL[i]));
+				interleaved[2*i+1] = Math.max(-1f, Math.min(1f, this.floatR[i]));
+			}
+			this.frameFloats.clear();
+			this.frameFloats.put(interleaved);
+		} else {
+			byte[] bytes = this.interleavedBytes;
+			boolean bigEndian = this.audioFormat.isBigEndian();
+			for (int i = 0; i < FRAME_SIZE; i++) {
+				putInt24(bytes, 6*i,   toInt24(this.floatL[i]), bigEndian);
+				putInt24(bytes, 6*i+3, toInt24(this.floatR[i]), bigEndian);
+			}
+			this.frameBuffer.clear();
+			this.frameBuffer.put(bytes);
 		}
+		this.frameBuffer.clear();
+	}
+	private static int toInt24(float value) {
+		return (int) Math.rint(Math.max(-1f, Math.min(1f, value)) * 8388607.5 - 0.5);
+	}
+	private static void putInt24(byte[] bytes, int index, int value, boolean bigEndian) {
+		bytes[index + (bigEndian ? 2 : 0)] = (byte) value;
+		bytes[index + 1]                   = (byte) (value >> 8);
+		bytes[index + (bigEndian ? 0 : 2)] = (byte) (value >> 16);
 	}
 	
-	private void renderFrame(byte[] buffer) {
-		short[] dataL = new short[FRAME_SIZE];
-		short[] dataR = new short[FRAME_SIZE];
-		
-		this.controller.render(dataL, dataR);
+	/**
+	 * Grow the buffer after an underrun or when rendering gets slow, and shrink it again once playback has been steady for a while.
+	 * @param underrun If the sink just ran empty.
+	 */
+	private void adaptBuffering(boolean underrun) {
+		if (!this.adaptiveBuffering) return;
+		// Enough frames to cover a slow render twice over.
+		int needed = MIN_BUFFER_FRAMES + (int) (2 * this.renderNanos * FRAME_RATE / 1e9);
+		int frames = this.bufferFrames;
+		if (underrun || frames < needed) {
+			this.bufferFrames = Math.min(Math.min(this.maxBufferFrames, this.sinkFrames), Math.max(needed, frames + (underrun ? Math.max(1, frames / 2) : 1)));
+			this.stableFrames = 0;
+		} else if (++this.stableFrames >= SHRINK_SECONDS * FRAME_RATE) {
+			if (frames > needed)
+				this.bufferFrames = frames - 1;
+			this.stableFrames = 0;
+		}
+	}
+	
+	private void renderFrame() {
+		this.controller.render(this.floatL, this.floatR);
 		
-		for (IAudioPostProcesser processer : this.postProcessers)
+		for (int i = 0; i < this.floatPostProcessers.size(); i++) {
+			IFloatAudioPostProcesser processer = this.floatPostProcessers.get(i);
 			if (processer != null)
-				processer.processData(dataL, dataR);
+				processer.processData(this.floatL, this.floatR);
+		}
+		
+		// 16 bit postProcessers need the frame quantized first.
+		boolean quantized = false;
+		for (int i = 0; i < this.postProcessers.size(); i++) {
+			IAudioPostProcesser processer = this.postProcessers.get(i);
+			if (processer == null) continue;
+			if (!quantized) {
+				MixKernel.INSTANCE.convert(this.floatL, this.dataL, 0, FRAME_SIZE, 1f);
+				MixKernel.INSTANCE.convert(this.floatR, this.dataR, 0, FRAME_SIZE, 1f);
+				quantized = true;
+			}
+			processer.processData(this.dataL, this.dataR);
+		}
 		
-		transferFrame(dataL, dataR, buffer);
+		transferFrame(quantized);
 	}
 
 	
@@ -174,6 +351,40 @@ public class PlayerThread extends Thread {
 		return SAMPLE_RATE;
 	}
 	
+	/**
+	 * Get how many frames the player currently keeps buffered ahead. (At most one frame less than the sink holds)
+	 * @return The current buffer size in frames.
+	 */
+	public int getBufferFrames() {
+		return Math.min(this.bufferFrames, this.sinkFrames);
+	}
+	/**
+	 * Get how many times the sink has run empty while playing.
+	 * @return The underrun count.
+	 */
+	public int getUnderruns() {
+		return this.underruns;
+	}
+	/**
+	 * Get the estimated time it takes to render one frame, which leans towards recent slow frames.
+	 * @return The render time in nanoseconds.
+	 */
+	public long getRenderNanos() {
+		return this.renderNanos;
+	}
+	/**
+	 * Set if the buffer size is adapted to render times and underruns. (Turning it off goes back to the size given when constructed.)
+	 * @param adaptiveBuffering If the buffer size should adapt.
+	 */
+	public void setAdaptiveBuffering(boolean adaptiveBuffering) {
+		this.adaptiveBuffering = adaptiveBuffering;
+		if (!adaptiveBuffering)
+			this.bufferFrames = Math.max(MIN_BUFFER_FRAMES, FRAME_BUFFER_SIZE);
+	}
+	public boolean isAdaptiveBuffering() {
+		return this.adaptiveBuffering;
+	}
+	
 	// STATE MANAGEMENT
 	
 	public boolean isRunning() {
@@ -182,13 +393,13 @@ public class PlayerThread extends Thread {
 	public void setRunning(boolean running) {
 		if (this.isAlive()) {
 			this.running = running;
-			this.interrupt();
+			LockSupport.unpark(this);
 		}
 	}
 	public void end() {
 		if (this.isAlive()) {
 			this.ended = true;
-			this.interrupt();
+			LockSupport.unpark(this);
 		}
 	}
 	public boolean isEnded() {
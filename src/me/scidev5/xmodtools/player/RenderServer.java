@@ -0,0 +1,422 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools.player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class RenderServer {
+	private static final int IDLE = 0, READY = 1, WAITING = 2;
+	
+	private final int frameSize;
+	private final Thread[] workers;
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition workAvailable = this.lock.newCondition();
+	/** Streams with room for a frame, earliest deadline (buffer runs dry) first. */
+	private final StreamQueue ready = new StreamQueue();
+	/** Streams with full buffers, soonest to have room for a frame first. */
+	private final StreamQueue waiting = new StreamQueue();
+	private final List<Stream> streams = new ArrayList<>();
+	private boolean shutdown = false;
+	
+	/**
+	 * Create a render server and start its workers.
+	 * @param workers The number of worker threads to render on.
+	 * @param frameSize The number of samples rendered for a stream at a time. (Default for PlayerThread: 512)
+	 * @throws IllegalArgumentException If workers or frameSize are less than 1.
+	 */
+	public RenderServer(int workers, int frameSize) throws IllegalArgumentException {
+		if (workers < 1) throw new IllegalArgumentException("workers must be at least 1.");
+		if (frameSize < 1) throw new IllegalArgumentException("frameSize must be at least 1.");
+		
+		this.frameSize = frameSize;
+		this.workers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			this.workers[i] = new Thread(this::work, "XMRenderServer-" + i);
+			this.workers[i].setDaemon(true);
+			this.workers[i].start();
+		}
+	}
+	/**
+	 * Create a render server with one worker per available processor.
+	 */
+	public RenderServer() {
+		this(Runtime.getRuntime().availableProcessors(), 512);
+	}
+	
+	/**
+	 * Start rendering a controller into a new stream.
+	 * @param controller The controller to render.
+	 * @param bufferSize How many samples the stream buffers ahead. (Must be at least two frames.)
+	 * @return The stream to read the audio from.
+	 * @throws IllegalArgumentException If the controller is null or the buffer is too small.
+	 * @throws IllegalStateException If the server has been shut down.
+	 */
+	public Stream addStream(XMAudioController controller, int bufferSize) throws IllegalArgumentException, IllegalStateException {
+		if (controller == null) throw new IllegalArgumentException("controller was null.");
+		if (bufferSize < 2*this.frameSize) throw new IllegalArgumentException("bufferSize must be at least two frames.");
+		
+		Stream stream = new Stream(controller, bufferSize);
+		this.lock.lock();
+		try {
+			if (this.shutdown) throw new IllegalStateException("render server was shut down.");
+			this.streams.add(stream);
+			this.schedule(stream);
+		} finally {
+			this.lock.unlock();
+		}
+		return stream;
+	}
+	/**
+	 * Get all streams that are currently being rendered.
+	 * @return A copy of the stream list.
+	 */
+	public List<Stream> getStreams() {
+		this.lock.lock();
+		try {
+			return new ArrayList<>(this.streams);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	/**
+	 * Stop all workers. (Streams stop being refilled but can still be read until they run dry.)
+	 */
+	public void shutdown() {
+		this.lock.lock();
+		try {
+			this.shutdown = true;
+			this.workAvailable.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Queue a stream by how full its buffer is. Must hold the lock. */
+	private void schedule(Stream stream) {
+		this.unqueue(stream);
+		if (stream.closed || this.shutdown) {
+			stream.state = IDLE;
+			return;
+		}
+		long now = System.nanoTime();
+		int buffered = stream.getBuffered();
+		if (stream.capacity - buffered < this.frameSize) {
+			stream.state = WAITING;
+			// Reads only take the lock to wake WAITING streams, so check again for one that came in before the state was set.
+			buffered = stream.getBuffered();
+		}
+		int free = stream.capacity - buffered;
+		stream.deadline = now + stream.samplesToNanos(buffered);
+		if (free >= this.frameSize) {
+			stream.state = READY;
+			this.ready.add(stream, stream.deadline);
+		} else {
+			this.waiting.add(stream, now + stream.samplesToNanos(this.frameSize - free));
+		}
+		this.workAvailable.signal();
+	}
+	/** Take a stream out of the queue it is in, if any. Must hold the lock. */
+	private void unqueue(Stream stream) {
+		if (stream.queueIndex >= 0)
+			(stream.state == READY ? this.ready : this.waiting).remove(stream);
+	}
+	/** Move a waiting stream to the ready queue early because its buffer was read ahead of schedule. */
+	private void wake(Stream stream) {
+		if (stream.state != WAITING || stream.capacity - stream.getBuffered() < this.frameSize) return;
+		this.lock.lock();
+		try {
+			if (stream.state == WAITING && stream.capacity - stream.getBuffered() >= this.frameSize)
+				this.schedule(stream);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	private void work() {
+		while (true) {
+			Stream stream;
+			this.lock.lock();
+			try {
+				while (true) {
+					if (this.shutdown) return;
+					long now = System.nanoTime();
+					while (!this.waiting.isEmpty() && this.waiting.peek().queueTime <= now)
+						this.schedule(this.waiting.poll());
+					stream = this.ready.poll();
+					if (stream != null) break;
+					
+					if (this.waiting.isEmpty())
+						this.workAvailable.await();
+					else
+						this.workAvailable.awaitNanos(this.waiting.peek().queueTime - now);
+				}
+				stream.state = IDLE;
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				this.lock.unlock();
+			}
+			
+			try {
+				stream.renderFrame();
+			} catch (Throwable e) {
+				stream.failure = e;
+				stream.closed = true;
+			}
+			
+			this.lock.lock();
+			try {
+				if (stream.closed)
+					this.streams.remove(stream);
+				this.schedule(stream);
+			} finally {
+				this.lock.unlock();
+			}
+		}
+	}
+	
+	/** A binary heap of streams by queue time, which can also remove any stream it holds. Guarded by the server lock. */
+	private static class StreamQueue {
+		private Stream[] heap = new Stream[16];
+		private int size = 0;
+		
+		boolean isEmpty() {
+			return this.size == 0;
+		}
+		Stream peek() {
+			return this.size == 0 ? null : this.heap[0];
+		}
+		void add(Stream stream, long time) {
+			if (this.size == this.heap.length)
+				this.heap = Arrays.copyOf(this.heap, 2*this.size);
+			stream.queueTime = time;
+			this.set(this.size++, stream);
+			this.siftUp(stream.queueIndex);
+		}
+		Stream poll() {
+			Stream stream = this.peek();
+			if (stream != null) this.remove(stream);
+			return stream;
+		}
+		void remove(Stream stream) {
+			int index = stream.queueIndex;
+			stream.queueIndex = -1;
+			Stream last = this.heap[--this.size];
+			this.heap[this.size] = null;
+			if (index < this.size) {
+				this.set(index, last);
+				this.siftDown(index);
+				this.siftUp(last.queueIndex);
+			}
+		}
+		
+		private void set(int index, Stream stream) {
+			this.heap[index] = stream;
+			stream.queueIndex = index;
+		}
+		private void siftUp(int index) {
+			Stream stream = this.heap[index];
+			while (index > 0) {
+				int parent = (index - 1) / 2;
+				if (this.heap[parent].queueTime <= stream.queueTime) break;
+				this.set(index, this.heap[parent]);
+				index = parent;
+			}
+			this.set(index, stream);
+		}
+		private void siftDown(int index) {
+			Stream stream = this.heap[index];
+			while (true) {
+				int child = 2*index + 1;
+				if (child >= this.size) break;
+				if (child + 1 < this.size && this.heap[child+1].queueTime < this.heap[child].queueTime) child++;
+				if (stream.queueTime <= this.heap[child].queueTime) break;
+				this.set(index, this.heap[child]);
+				index = child;
+			}
+			this.set(index, stream);
+		}
+	}
+	
+	public class Stream {
+		public final XMAudioController controller;
+		private final int capacity;
+		/** Interleaved left/right samples. */
+		private final short[] ring;
+		private final short[] dataL;
+		private final short[] dataR;
+		private final List<IAudioPostProcesser> postProcessers = new ArrayList<>();
+		
+		private volatile long written = 0;
+		private volatile long read = 0;
+		private volatile boolean closed = false;
+		private volatile Throwable failure = null;
+		
+		// Scheduling state, guarded by the server lock. (The state is also read without it, to only lock for reads that wake the stream.)
+		private volatile int state = IDLE;
+		private long deadline;
+		private long queueTime;
+		private int queueIndex = -1;
+		
+		// Buffer health.
+		private volatile int underruns = 0;
+		private volatile int lateFrames = 0;
+		private volatile int lowestBuffered;
+		
+		private Stream(XMAudioController controller, int capacity) {
+			this.controller = controller;
+			this.capacity = capacity;
+			this.ring = new short[2*capacity];
+			this.dataL = new short[RenderServer.this.frameSize];
+			this.dataR = new short[RenderServer.this.frameSize];
+			this.lowestBuffered = capacity;
+		}
+		
+		/** Render one frame into the ring. Only ever called by one worker at a time. */
+		private void renderFrame() {
+			if (System.nanoTime() > this.deadline)
+				this.lateFrames++;
+			
+			this.controller.render(this.dataL, this.dataR);
+			synchronized (this.postProcessers) {
+				for (IAudioPostProcesser processer : this.postProcessers)
+					if (processer != null)
+						processer.processData(this.dataL, this.dataR);
+			}
+			
+			long written = this.written;
+			int index = (int) (written % this.capacity);
+			int first = Math.min(this.dataL.length, this.capacity - index);
+			MixKernel.INSTANCE.interleave(this.dataL, this.dataR, 0, this.ring, 2*index, first);
+			MixKernel.INSTANCE.interleave(this.dataL, this.dataR, first, this.ring, 0, this.dataL.length - first);
+			this.written = written + this.dataL.length;
+		}
+		private long samplesToNanos(int samples) {
+			return (long) (samples * 1e9 / this.controller.format.getSampleRate());
+		}
+		
+		/**
+		 * Read rendered audio. (Called from a single consumer thread.)
+		 * If not enough audio is buffered the rest is filled with silence and counted as an underrun.
+		 * @param dataL An array to hold the data for the left channel.
+		 * @param dataR An array to hold the data for the right channel.
+		 * @return The number of samples that were actually available.
+		 * @throws IllegalArgumentException If the data channels have different lengths.
+		 */
+		public int read(short[] dataL, short[] dataR) throws IllegalArgumentException {
+			if (dataL.length != dataR.length)
+				throw new IllegalArgumentException("Audio channel arrays had different lengths!");
+			
+			long read = this.read;
+			int available = (int) Math.min(dataL.length, this.written - read);
+			int index = (int) (read % this.capacity);
+			for (int i = 0; i < available; i++) {
+				dataL[i] = this.ring[2*index];
+				dataR[i] = this.ring[2*index+1];
+				if (++index == this.capacity) index = 0;
+			}
+			if (available < dataL.length) {
+				Arrays.fill(dataL, available, dataL.length, (short) 0);
+				Arrays.fill(dataR, available, dataR.length, (short) 0);
+				this.underruns++;
+			}
+			this.read = read + available;
+			
+			int buffered = this.getBuffered();
+			if (buffered < this.lowestBuffered)
+				this.lowestBuffered = buffered;
+			
+			RenderServer.this.wake(this);
+			return available;
+		}
+		
+		/**
+		 * Stop rendering this stream. (Audio that is already buffered can still be read.)
+		 */
+		public void close() {
+			this.closed = true;
+			RenderServer.this.lock.lock();
+			try {
+				RenderServer.this.streams.remove(this);
+				RenderServer.this.unqueue(this);
+				this.state = IDLE;
+			} finally {
+				RenderServer.this.lock.unlock();
+			}
+		}
+		/** Get if this stream has been closed. */
+		public boolean isClosed() {
+			return this.closed;
+		}
+		/** Get what was thrown while rendering this stream and closed it, or null if nothing was. */
+		public Throwable getFailure() {
+			return this.failure;
+		}
+		
+		/**
+		 * Get post processer list that can be modified to add new postProcessers. (Synchronize on it while modifying.)
+		 * @return The postProcesser list.
+		 */
+		public List<IAudioPostProcesser> getPostProcesserList() {
+			return this.postProcessers;
+		}
+		
+		// BUFFER HEALTH
+		
+		/** Get how many samples are buffered and ready to be read. */
+		public int getBuffered() {
+			return (int) (this.written - this.read);
+		}
+		/** Get how many samples the buffer holds. */
+		public int getCapacity() {
+			return this.capacity;
+		}
+		/** Get how full the buffer is. (0 -> empty; 1 -> full) */
+		public float getFill() {
+			return this.getBuffered() / (float) this.capacity;
+		}
+		/** Get how many reads found less audio buffered than they asked for. */
+		public int getUnderruns() {
+			return this.underruns;
+		}
+		/** Get how many frames were rendered after the buffer would already have run dry. */
+		public int getLateFrames() {
+			return this.lateFrames;
+		}
+		/** Get the fewest samples that were left buffered after a read since the last reset. */
+		public int getLowestBuffered() {
+			return this.lowestBuffered;
+		}
+		/** Reset the underrun and late frame counts and the lowest buffered sample count. */
+		public void resetHealth() {
+			this.underruns = 0;
+			this.lateFrames = 0;
+			this.lowestBuffered = this.getBuffered();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+package me.scidev5.xmodtools.player;
+
+class ScalarMixKernel extends MixKernel {
+	
+	@Override
+	void mix(float[] src, int srcOffset, float[] dst, int dstOffset, int length, float gain, float step, int index) {
+		if (step == 0) {
+			for (int i = 0; i < length; i++)
+				dst[dstOffset+i] += gain * src[srcOffset+i];
+		} else {
+			for (int i = 0; i < length; i++)
+				dst[dstOffset+i] += (gain + (index + i) * step) * src[srcOffset+i];
+		}
+	}
+	@Override
+	void accumulate(float[] src, int srcOffset, float[] dst, int dstOffset, int length) {
+		for (int i = 0; i < length; i++)
+			dst[dstOffset+i] += src[srcOffset+i];
+	}
+	@Override
+	void convert(float[] mix, short[] out, int offset, int length, float gain) {
+		for (int i = offset; i < offset + length; i++)
+			out[i] = toShort(mix[i], gain);
+	}
+	@Override
+	void scale(float[] mix, float[] out, int offset, int length, float gain) {
+		for (int i = offset; i < offset + length; i++)
+			out[i] = mix[i] * gain;
+	}
+	@Override
+	void interleave(short[] left, short[] right, int offset, short[] out, int outOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			out[outOffset+2*i]   = left[offset+i];
+			out[outOffset+2*i+1] = right[offset+i];
+		}
+	}
+}
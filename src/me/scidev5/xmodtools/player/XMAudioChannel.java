@@ -21,7 +21,6 @@
 
 package me.scidev5.xmodtools.player;
 
-import java.nio.DoubleBuffer;
 import java.util.Arrays;
 
 import me.scidev5.xmodtools.Constants;
@@ -31,6 +30,7 @@ import me.scidev5.xmodtools.data.Sample;
 import me.scidev5.xmodtools.player.automation.Envelope;
 import me.scidev5.xmodtools.player.automation.LFO;
 import me.scidev5.xmodtools.player.util.EffectType;
+import me.scidev5.xmodtools.player.util.PanLaw;
 import me.scidev5.xmodtools.player.util.SampleInterpolation;
 
 public class XMAudioChannel {
@@ -39,32 +39,56 @@ public class XMAudioChannel {
 
 	private Sample sample;
 	private Instrument instrument;
+	/** Number of the last instrument played. (0 if none.) */
+	private int instrumentNumber = 0;
 
 	private Envelope volumeEnv;
 	private Envelope panningEnv;
+	/** The instrument's envelopes and autoVibrato are copied into these when a note starts, so notes don't allocate. */
+	private final Envelope volumeEnvStorage = new Envelope();
+	private final Envelope panningEnvStorage = new Envelope();
+	private final LFO autoVibratoLFOStorage = new LFO();
 
 	private LFO vibratoLFO;
 	private LFO tremoloLFO;
 	private LFO autoVibratoLFO;
 
-	private float sampleFraction = 0f;
-	private long sampleNumber = 0l;
+	/** The playback buffer of the current sample, fetched when a note starts. */
+	private Sample.PlaybackBuffer sampleBuffer;
+	/** Position in the sample as a 32.32 fixed point number. */
+	private long samplePosition = 0l;
+	/** Amount to advance samplePosition by each sample (32.32 fixed point), updated every tick. */
+	private long sampleStep = 0l;
+	private long sampleStepTarget = 0l;
+	private long sampleStepDelta = 0l;
+	private int sampleStepRampLeft = 0;
+	private int lastArpNote = 0;
 
 	private byte fineTune = 0;
 	private int note = 0;
 	private double pitchBend = 0;
 	private boolean isHeld = false;
 
-	private float lastVolume = 0;
-	private float lastPanning = 0;
+	/** Left and right gains at the start of the current ramp to the targets set on the last tick. */
+	private float gainL = 0;
+	private float gainR = 0;
+	private float gainTargetL = 0;
+	private float gainTargetR = 0;
+	private float gainStepL = 0;
+	private float gainStepR = 0;
+	private int gainRampLeft = 0;
+	/** Samples of the current ramp already played. (Gains are always start + index*step, however the ramp is split into blocks.) */
+	private int gainRampIndex = 0;
 
 	private int channelVolume = 0;
 	private int fadeoutVolume = 0;
 	
 	private int channelPanning = 0;
 	
-	private DoubleBuffer fadeoutSamples = null;
+	/** Voices that were cut off and are still fading out to avoid clicks. */
+	private final GhostVoice[] ghosts;
 	private boolean justCut = false;
+	private boolean muted = false;
 	
 	// EFFECT DATA
 
@@ -105,7 +129,7 @@ public class XMAudioChannel {
 	private int cutTick = -1;
 	private int keyOffTick = -1;
 	private int playTick = -1;
-	private PatternData playRow = null;
+	private PatternEvent playRow = null;
 
 	private int retriggerCounter = -1;
 	private int retriggerMode = -1;
@@ -125,6 +149,16 @@ public class XMAudioChannel {
 	private int arpIndex = 0;
 	private final int[] arpNotes;
 	
+	private static final int POSITION_FRACTION_BITS = 32;
+	private static final long POSITION_FRACTION_MASK = (1l << POSITION_FRACTION_BITS) - 1;
+	private static final double POSITION_FRACTION_SCALE = 1.0 / (1l << POSITION_FRACTION_BITS);
+	
+	private float[] blockBuffer = new float[0];
+	private float[] ghostBufferL = new float[0];
+	private float[] ghostBufferR = new float[0];
+	private final float[] singleSampleL = new float[1];
+	private final float[] singleSampleR = new float[1];
+	
 	
 	public XMAudioChannel(XMAudioController controller) {
 		this.controller = controller;
@@ -135,19 +169,28 @@ public class XMAudioChannel {
 		this.vibratoLFO = new LFO();
 		this.tremoloLFO = new LFO();
 		this.autoVibratoLFO = null;
+		
+		this.ghosts = new GhostVoice[2];
+		for (int i = 0; i < this.ghosts.length; i++)
+			this.ghosts[i] = new GhostVoice();
 	}
 	
+	/**
+	 * Get the panning the channel is moving to over the current tick.
+	 * @return The panning. (-1 -> left; 1 -> right)
+	 */
 	public float getPanning() {
+		return this.getPanningTarget();
+	}
+	private float getPanningTarget() {
 		float value = this.channelPanning / 128.0f - 1f;
 		
 		if (this.panningEnv != null)
-			Math.min(1, Math.max(-1, value + (1 - Math.abs(value)) * (this.panningEnv.get() / (float)0x20 - 1)));
+			value = Math.min(1, Math.max(-1, value + (1 - Math.abs(value)) * (this.panningEnv.get() / (float)0x20 - 1)));
 		
-		float deltaPanning = value-this.lastPanning;
-		this.lastPanning += Math.signum(deltaPanning) * (this.justCut?Math.abs(deltaPanning):Math.min(1f/(8*Constants.FADEOUT_SAMPLES), Math.abs(deltaPanning)));
-		return this.lastPanning;
+		return value;
 	}
-	private float getVolume() {
+	private float getVolumeTarget() {
 		
 		float value = ((float)channelVolume / (float)0x40) * ((float)fadeoutVolume / (float)0xffff);
 		
@@ -157,34 +200,19 @@ public class XMAudioChannel {
 		if (!this.tremoloOverwritten)
 		value += this.tremoloLFO.get();
 		
-		if (this.tremorMute)
+		if (this.tremorMute || this.muted)
 			value = 0;
 		
-		float deltaVolume = value-this.lastVolume;
-		this.lastVolume += Math.signum(deltaVolume) * Math.min((this.justCut || this.tremorMute != this.tremorMuteLast ? 1f : 1/8f) / Constants.FADEOUT_SAMPLES, Math.abs(deltaVolume));
-		
-		return this.lastVolume;
+		return value;
 	}
-	
-	public double sample() {
-		double lastSample = 0;
-		if (this.fadeoutSamples != null) {
-			if (this.fadeoutSamples.hasRemaining())
-				lastSample = this.fadeoutSamples.get();
-			else
-				this.fadeoutSamples = null;
-		}
-		if (this.sample == null) {
-			return lastSample;
-		}
-		float volume = this.getVolume();
-		
-		int arpNote = 0;
+	private int getArpNote() {
 		if (arpIndex < arpNotes.length && arpIndex > 0)
-			arpNote = arpNotes[arpIndex];
-		
+			return arpNotes[arpIndex];
+		return 0;
+	}
+	private double getSampleDelay(int arpNote) {
 		FrequencyTable table = this.controller.song.getFrequencyTable();
-		double sampleDelay = (this.controller.getState().doQuantizePorta()?
+		return (this.controller.getState().doQuantizePorta()?
 				table.calculateSampleRateGlissando(
 					this.note + arpNote, 
 					this.fineTune, 
@@ -200,28 +228,241 @@ public class XMAudioChannel {
 						(this.autoVibratoLFO != null ? 127.5f*this.autoVibratoLFO.get()-0.5f : 0)
 				)
 			)/this.controller.format.getSampleRate();
+	}
+	/**
+	 * Recalculate the playback step from the note, finetune, pitch bend and LFOs.
+	 * (These only change on ticks, so the step is kept for every sample until the next tick.)
+	 * @param slide Whether to slide linearly from the current step to the new one over the next tick.
+	 */
+	private void updateSampleStep(boolean slide) {
+		if (this.sample == null) return;
+		
+		int arpNote = this.getArpNote();
+		long step = (long) (this.getSampleDelay(arpNote) * (1l << POSITION_FRACTION_BITS));
+		int rampLength = (int) this.controller.getSamplesPerTick();
+		
+		// Arpeggio and glissando are meant to jump between notes, so they never slide.
+		if (slide && arpNote == this.lastArpNote && !this.controller.getState().doQuantizePorta() && rampLength > 0) {
+			this.sampleStepTarget = step;
+			this.sampleStepDelta = (step - this.sampleStep) / rampLength;
+			this.sampleStepRampLeft = rampLength;
+		} else {
+			this.sampleStep = step;
+			this.sampleStepTarget = step;
+			this.sampleStepRampLeft = 0;
+		}
+		this.lastArpNote = arpNote;
+	}
+	/**
+	 * Recalculate the left and right gains from the volume and panning, and start ramping
+	 * linearly to them.
+	 * @param fast If the ramp should be short (for cuts and mutes), instead of lasting the next tick.
+	 */
+	private void updateGainTargets(boolean fast) {
+		PanLaw panLaw = this.controller.getPanLaw();
+		float volume = Math.max(0, this.getVolumeTarget());
+		float panning = this.getPanningTarget();
+		float targetL = volume * panLaw.getLeft(panning);
+		float targetR = volume * panLaw.getRight(panning);
+		if (targetL == this.gainTargetL && targetR == this.gainTargetR)
+			return;
+		
+		int rampLength = fast ?
+			Constants.FADEOUT_SAMPLES : Math.max(1, (int) this.controller.getSamplesPerTick());
+		this.gainL += this.gainRampIndex * this.gainStepL;
+		this.gainR += this.gainRampIndex * this.gainStepR;
+		this.gainRampIndex = 0;
+		this.gainTargetL = targetL;
+		this.gainTargetR = targetR;
+		this.gainStepL = (targetL - this.gainL) / rampLength;
+		this.gainStepR = (targetR - this.gainR) / rampLength;
+		this.gainRampLeft = rampLength;
+	}
+	
+	/**
+	 * Write the channel's state into a snapshot.
+	 * @param snapshot The snapshot to write to.
+	 * @param index The index of the channel in the snapshot.
+	 */
+	void writeSnapshot(PlaybackSnapshot snapshot, int index) {
+		snapshot.note[index] = this.sample != null ? this.note : -1;
+		snapshot.instrument[index] = this.instrumentNumber;
+		snapshot.volume[index] = this.sample != null ? Math.max(0, this.getVolumeTarget()) : 0;
+		snapshot.panning[index] = this.getPanningTarget();
+		snapshot.volumeEnvelopePosition[index] = this.volumeEnv != null ? this.volumeEnv.getFrame() : -1;
+		snapshot.panningEnvelopePosition[index] = this.panningEnv != null ? this.panningEnv.getFrame() : -1;
+	}
+	
+	/**
+	 * Calculate the next sample of the channel (without panning).
+	 * @return The value of the sample.
+	 */
+	public double sample() {
+		this.singleSampleL[0] = 0;
+		this.singleSampleR[0] = 0;
+		this.renderBlock(this.singleSampleL, this.singleSampleR, 0, 1);
+		return (this.singleSampleL[0] + this.singleSampleR[0]) / 2;
+	}
+	
+	/**
+	 * Render a block of samples and add them to the mix. All of the samples in the
+	 * block must lie between the same two ticks.
+	 * @param mixL The left channel of the mix.
+	 * @param mixR The right channel of the mix.
+	 * @param offset The index in the mix to start adding at.
+	 * @param length The number of samples to render.
+	 */
+	public void renderBlock(float[] mixL, float[] mixR, int offset, int length) {
+		boolean ghosting = false;
+		for (GhostVoice ghost : this.ghosts)
+			ghosting |= ghost.remaining > 0;
+		if (!ghosting) {
+			this.mixVoice(mixL, mixR, offset, length);
+			return;
+		}
+		
+		// Sum the ghosts and the voice first, so the mix only gets one addition per sample (the same as rendering in parallel).
+		if (this.ghostBufferL.length < length) {
+			this.ghostBufferL = new float[length];
+			this.ghostBufferR = new float[length];
+		}
+		float[] bufL = this.ghostBufferL;
+		float[] bufR = this.ghostBufferR;
+		Arrays.fill(bufL, 0, length, 0f);
+		Arrays.fill(bufR, 0, length, 0f);
+		for (GhostVoice ghost : this.ghosts)
+			if (ghost.remaining > 0)
+				this.renderGhost(ghost, bufL, bufR, 0, length);
+		this.mixVoice(bufL, bufR, 0, length);
+		MixKernel.INSTANCE.accumulate(bufL, 0, mixL, offset, length);
+		MixKernel.INSTANCE.accumulate(bufR, 0, mixR, offset, length);
+	}
+	/**
+	 * Render the playing sample and add it to the mix with the left and right gains.
+	 */
+	private void mixVoice(float[] mixL, float[] mixR, int offset, int length) {
+		if (this.sample == null)
+			return;
+		
+		if (this.blockBuffer.length < length)
+			this.blockBuffer = new float[length];
+		float[] block = this.blockBuffer;
+		this.renderVoice(block, length);
 		
-		SampleInterpolation interpolation = SampleInterpolation.LINEAR;
-		
-		double data = 0;
-		if (volume > 0) {
-			data = this.sample.get16Bit() ? 
-				interpolation.apply(
-					this.sample.getSample16(this.sampleNumber), 
-					this.sample.getSample16(this.sampleNumber+1), 
-					this.sampleFraction) :
-				interpolation.apply(
-					this.sample.getSample8(this.sampleNumber),
-					this.sample.getSample8(this.sampleNumber+1),
-					this.sampleFraction);
+		MixKernel kernel = MixKernel.INSTANCE;
+		int rampLength = Math.min(length, this.gainRampLeft);
+		if (rampLength > 0) {
+			kernel.mix(block, 0, mixL, offset, rampLength, this.gainL, this.gainStepL, this.gainRampIndex);
+			kernel.mix(block, 0, mixR, offset, rampLength, this.gainR, this.gainStepR, this.gainRampIndex);
+			this.advanceGainRamp(rampLength);
 		}
+		kernel.mix(block, rampLength, mixL, offset + rampLength, length - rampLength, this.gainL, 0, 0);
+		kernel.mix(block, rampLength, mixR, offset + rampLength, length - rampLength, this.gainR, 0, 0);
+	}
+	
+	/**
+	 * Get if the channel would make any sound in the next block. (A fadeout is pending, or a
+	 * sample is playing, hasn't run off the end of a one-shot sample, and its volume is or is ramping above zero.)
+	 * @return If the channel has to be rendered.
+	 */
+	public boolean isAudible() {
+		for (GhostVoice ghost : this.ghosts)
+			if (ghost.remaining > 0) return true;
+		return this.sample != null && !this.sampleBuffer.isFinished(this.samplePosition) && 
+				(this.gainL > 0 || this.gainR > 0 || this.gainTargetL > 0 || this.gainTargetR > 0);
+	}
+	/**
+	 * Advance the channel by a block without rendering it, leaving it in exactly the state 
+	 * renderBlock would have. (Only valid while isAudible() is false.)
+	 * @param length The number of samples to skip.
+	 */
+	public void skipBlock(int length) {
+		if (this.sample == null)
+			return;
 		
-		this.sampleFraction += sampleDelay % 1;
-		this.sampleNumber += (long) sampleDelay + (long) this.sampleFraction;
-		this.sampleFraction %= 1;
+		this.advanceGainRamp(Math.min(length, this.gainRampLeft));
 		
+		// Same steps as renderVoice, summed. (Wrapping once at the end lands on the same position.)
+		long position = this.samplePosition;
+		long step = this.sampleStep;
+		int rampLength = Math.min(length, this.sampleStepRampLeft);
+		if (rampLength > 0) {
+			position += step * rampLength + this.sampleStepDelta * ((long) rampLength * (rampLength - 1) / 2);
+			step += this.sampleStepDelta * rampLength;
+			this.sampleStepRampLeft -= rampLength;
+			if (this.sampleStepRampLeft == 0)
+				step = this.sampleStepTarget;
+		}
+		position += step * (length - rampLength);
+		if (position >= this.sampleBuffer.wrapPosition)
+			position = this.sampleBuffer.wrap(position);
+		this.sampleStep = step;
+		this.samplePosition = position;
+	}
+	
+	private void advanceGainRamp(int length) {
+		this.gainRampIndex += length;
+		this.gainRampLeft -= length;
+		if (this.gainRampLeft == 0) {
+			this.gainL = this.gainTargetL;
+			this.gainR = this.gainTargetR;
+			this.gainRampIndex = 0;
+		}
+	}
+	
+	/**
+	 * Render the playing sample at unity gain. (Gain and panning are applied by renderBlock.)
+	 */
+	private void renderVoice(float[] out, int length) {
+		SampleInterpolation interpolation = this.controller.getInterpolation();
+		Sample.PlaybackBuffer buffer = this.sampleBuffer;
+		short[] data16 = buffer.data16;
+		float[] dataFloat = buffer.dataFloat;
+		int bufferOffset = buffer.offset;
+		long wrapPosition = buffer.wrapPosition;
 		
-		return data * volume + lastSample;
+		long position = this.samplePosition;
+		if (position >= wrapPosition)
+			position = buffer.wrap(position);
+		long step = this.sampleStep;
+		boolean finished = buffer.isFinished(position);
+		int i = 0;
+		while (i < length) {
+			// Split off the part of the block where the step is still sliding.
+			int end = length;
+			long stepDelta = 0;
+			if (this.sampleStepRampLeft > 0) {
+				end = Math.min(length, i + this.sampleStepRampLeft);
+				stepDelta = this.sampleStepDelta;
+				this.sampleStepRampLeft -= end - i;
+			}
+			
+			for (; i < end && !finished; i++) {
+				int index = (int) (position >> POSITION_FRACTION_BITS) + bufferOffset;
+				double fraction = (position & POSITION_FRACTION_MASK) * POSITION_FRACTION_SCALE;
+				out[i] = (float) (data16 != null ?
+					interpolation.apply(data16, index, fraction) :
+					interpolation.apply(dataFloat, index, fraction));
+				
+				position += step;
+				if (position >= wrapPosition) {
+					position = buffer.wrap(position);
+					finished = buffer.isFinished(position);
+				}
+				step += stepDelta;
+			}
+			if (finished) {
+				// A one-shot sample ran out, so the rest is silent (exactly what skipBlock leaves out), but the step keeps sliding.
+				Arrays.fill(out, i, end, 0f);
+				step += stepDelta * (end - i);
+				i = end;
+			}
+			
+			if (stepDelta != 0 && this.sampleStepRampLeft == 0)
+				step = this.sampleStepTarget;
+		}
+		this.sampleStep = step;
+		this.samplePosition = position;
 	}
 	
 	public void preTick() {
@@ -233,6 +474,9 @@ public class XMAudioChannel {
 		
 		this.tickEnvelopes();
 		this.tickFadeout();
+		
+		this.updateSampleStep(this.controller.getPitchSlide() && !this.justCut);
+		this.updateGainTargets(this.justCut || this.tremorMute != this.tremorMuteLast);
 	}
 	public void lazyTick(int tick) {
 		this.tickEnvelopes();
@@ -331,11 +575,13 @@ public class XMAudioChannel {
 	}
 
 	public void runEffect(PatternData dataRow) {
-		EffectType type = EffectType.get(dataRow.effectType, dataRow.effectData);
-		int data = dataRow.effectData & 0xff;
+		this.runEffect(new PatternEvent(this.controller.song, -1, dataRow));
+	}
+	public void runEffect(PatternEvent dataRow) {
+		EffectType type = dataRow.effect;
+		if (type == null) return;
 		
-		if (type.dataId != -1)
-			data = data & 0xf;
+		int data = dataRow.effectParameter;
 		
 		switch (type) {
 		// Arpeggio
@@ -538,8 +784,7 @@ public class XMAudioChannel {
 				if (data == 0) data = this.memory_sampleOffset;
 				else           this.memory_sampleOffset = data;
 				
-				this.sampleNumber = data * 0x100;
-				this.sampleFraction = 0f;
+				this.samplePosition = (long) (data * 0x100) << POSITION_FRACTION_BITS;
 			}
 			break;
 		case SET_ENVELOPE_FRAME: 
@@ -571,7 +816,13 @@ public class XMAudioChannel {
 		
 	}
 	public void runVolumeColumn(PatternData data) {
-		int volume = 0xff & data.volume;
+		this.runVolumeColumn(data.volume, data.note);
+	}
+	public void runVolumeColumn(PatternEvent data) {
+		this.runVolumeColumn(data.volume, data.note);
+	}
+	private void runVolumeColumn(byte volumeColumn, byte note) {
+		int volume = 0xff & volumeColumn;
 
 		int upperNibble = (volume >> 4) & 0xf;
 		int lowerNibble = volume & 0xf;
@@ -635,8 +886,8 @@ public class XMAudioChannel {
 			
 		case 0x0F: // Portamento to note
 
-			if (data.note >= Constants.NOTE_FIRST && data.note < Constants.NOTE_FIRST + Constants.NOTE_COUNT)
-				this.portaNoteTarget = this.sample.getRelativeNote() + (data.note - Constants.NOTE_FIRST);
+			if (note >= Constants.NOTE_FIRST && note < Constants.NOTE_FIRST + Constants.NOTE_COUNT)
+				this.portaNoteTarget = this.sample.getRelativeNote() + (note - Constants.NOTE_FIRST);
 
 			lowerNibble *= 0x10;
 			
@@ -682,23 +933,25 @@ public class XMAudioChannel {
 	}
 
 	
-	public void runRow(PatternData data, boolean isLateTrigger) {
-		Instrument instrument = this.controller.song.getInstrument(data.instrument-1);
-		boolean noteValid = data.note >= Constants.NOTE_FIRST && data.note < Constants.NOTE_FIRST + Constants.NOTE_COUNT;
+	public void runRow(PatternEvent data, boolean isLateTrigger) {
+		Instrument instrument = data.instrumentRef;
+		boolean noteValid = data.noteValid;
 		
 		if (data.instrument > 0 && (noteValid || data.note == Constants.NOTE_KEYOFF) && instrument == null)
 			this.cut();
 		else if (!noteValid && instrument != null) {
-			if (isLateTrigger || this.canNotePlayImmediately(data))
+			if (isLateTrigger || data.playsImmediately)
 				this.resetNote();
-		} else if ((noteValid || data.note == Constants.NOTE_KEYOFF) && (isLateTrigger || this.canNotePlayImmediately(data))) {
+		} else if ((noteValid || data.note == Constants.NOTE_KEYOFF) && (isLateTrigger || data.playsImmediately)) {
 			if (data.note == Constants.NOTE_KEYOFF)
 				this.noteOff();
-			else if (instrument != null)
+			else if (instrument != null) {
 				this.playNote(data.note-Constants.NOTE_FIRST, instrument);
+				this.instrumentNumber = data.instrument & 0xff;
+			}
 			else 
 				this.switchNote(data.note-Constants.NOTE_FIRST);
-		} else if (this.isNotePorta(data) && this.hasSample() && data.instrument > 0)
+		} else if (data.notePorta && this.hasSample() && data.instrument > 0)
 			this.resetNote();
 		
 		if (!isLateTrigger) {
@@ -711,25 +964,48 @@ public class XMAudioChannel {
 			if (volume >= 0x10 && volume < 0x50 || volume >= 0x80 && volume < 0xA0)
 				this.runVolumeColumn(data);
 			
-			EffectType type = EffectType.get(data.effectType, data.effectData);
-			if (type == EffectType.SET_PANNING || 
-				type == EffectType.SET_PANNING_EXTCMD || 
-				type == EffectType.SET_FINETUNE || 
-				type == EffectType.SET_VOLUME || 
-				type == EffectType.SAMPLE_OFFSET || 
-				type == EffectType.PORTA_DOWN_FINE || 
-				type == EffectType.PORTA_EXTRA_FINE_DOWN ||
-				type == EffectType.PORTA_EXTRA_FINE_UP || 
-				type == EffectType.PORTA_UP_FINE || 
-				type == EffectType.VOLUME_SLIDE_FINE_DOWN || 
-				type == EffectType.VOLUME_SLIDE_FINE_UP) {
+			if (data.runsOnLateTrigger)
 				this.runEffect(data);
-			}
 		}
 	}
+	public void runRow(PatternEvent data) {
+		this.runRow(data, false);
+	}
+	public void runRow(PatternData data, boolean isLateTrigger) {
+		this.runRow(new PatternEvent(this.controller.song, -1, data), isLateTrigger);
+	}
 	public void runRow(PatternData data) {
 		this.runRow(data, false);
 	}
+	/**
+	 * Play a cell of pattern data right away, between ticks. (As if triggered late by a note delay.)
+	 * @param data The pattern data to play.
+	 */
+	public void trigger(PatternEvent data) {
+		this.runRow(data, true);
+		this.updateGainTargets(true);
+	}
+	/**
+	 * Mute or unmute the channel. It keeps playing while muted, and fades in or out quickly.
+	 * @param muted If the channel should be muted.
+	 */
+	public void setMuted(boolean muted) {
+		this.muted = muted;
+		this.updateGainTargets(true);
+	}
+	/**
+	 * Get if the channel is muted.
+	 * @return If the channel is muted.
+	 */
+	public boolean isMuted() {
+		return this.muted;
+	}
+	/**
+	 * Run a row where this channel's pattern data is empty.
+	 */
+	public void runEmptyRow() {
+		this.resetEffectData();
+	}
 	
 	/**
 	 * Start a note playing on a certain instrument.
@@ -739,9 +1015,10 @@ public class XMAudioChannel {
 	public void playNote(int note, Instrument instrument) {
 		this.hardCut();
 		this.sample = instrument.getNoteSample(note);
+		this.sampleBuffer = this.sample != null ? this.sample.getPlaybackBuffer() : null;
 		this.instrument = instrument;
-		this.volumeEnv = instrument.getVolumeEnv();
-		this.panningEnv = instrument.getPanningEnv();
+		this.volumeEnv = instrument.getVolumeEnv(this.volumeEnvStorage);
+		this.panningEnv = instrument.getPanningEnv(this.panningEnvStorage);
 		this.switchNote(note);
 		this.resetNote();
 	}
@@ -757,10 +1034,10 @@ public class XMAudioChannel {
 		this.note = note + this.sample.getRelativeNote();
 		this.fineTune = this.sample.getFineTune();
 		this.pitchBend = 0;
-		this.sampleNumber = 0;
-		this.sampleFraction = 0f;
-		this.lastVolume = 0f;
+		this.samplePosition = 0;
+		this.resetGain();
 		this.justCut = true;
+		this.updateSampleStep(false);
 	}
 	/**
 	 * Reset the sample to its start.
@@ -769,9 +1046,8 @@ public class XMAudioChannel {
 		if (this.sample == null) return;
 
 		this.bufferFadeout();
-		this.sampleNumber = 0;
-		this.sampleFraction = 0f;
-		this.lastVolume = 0f;
+		this.samplePosition = 0;
+		this.resetGain();
 		this.justCut = true;
 	}
 	/**
@@ -783,7 +1059,7 @@ public class XMAudioChannel {
 		this.channelVolume = this.sample.getVolume();
 		this.channelPanning = this.sample.getPanning();
 		
-		this.autoVibratoLFO = this.instrument.getAutoVibratoLFO();
+		this.autoVibratoLFO = this.instrument.getAutoVibratoLFO(this.autoVibratoLFOStorage);
 		
 		if (this.volumeEnv != null)
 			this.volumeEnv.retrigger();
@@ -812,21 +1088,92 @@ public class XMAudioChannel {
 	 */
 	public void hardCut() {
 		this.bufferFadeout();
-		this.lastVolume = 0f;
+		this.resetGain();
 		this.sample = null;
 		this.isHeld = false;
 		
 	}
 	
+	/**
+	 * Start the next note from silence.
+	 */
+	private void resetGain() {
+		this.gainL = 0;
+		this.gainR = 0;
+		this.gainTargetL = 0;
+		this.gainTargetR = 0;
+		this.gainRampLeft = 0;
+		this.gainRampIndex = 0;
+	}
+	/**
+	 * Hand the playing voice over to a ghost voice that keeps playing it while fading it out.
+	 */
 	private void bufferFadeout() {
-		int fadeoutSize = Constants.FADEOUT_SAMPLES;
-		DoubleBuffer fadeoutSamples = DoubleBuffer.allocate(fadeoutSize);
-		for (int i = 0; i < fadeoutSize; i++) {
-			float power = (fadeoutSize-i)/(float)fadeoutSize;
-			fadeoutSamples.put(power * this.sample());
+		float gainL = this.gainL + this.gainRampIndex * this.gainStepL;
+		float gainR = this.gainR + this.gainRampIndex * this.gainStepR;
+		if (this.sample == null || (gainL <= 0 && gainR <= 0) || this.sampleBuffer.isFinished(this.samplePosition))
+			return;
+		
+		// Reuse a free ghost, or the one closest to finishing if both are still fading.
+		GhostVoice ghost = this.ghosts[0];
+		for (GhostVoice other : this.ghosts)
+			if (other.remaining < ghost.remaining)
+				ghost = other;
+		
+		ghost.buffer = this.sampleBuffer;
+		ghost.position = this.samplePosition;
+		ghost.step = this.sampleStepRampLeft > 0 ? this.sampleStepTarget : this.sampleStep;
+		ghost.gainL = gainL;
+		ghost.gainR = gainR;
+		ghost.gainStepL = gainL / Constants.FADEOUT_SAMPLES;
+		ghost.gainStepR = gainR / Constants.FADEOUT_SAMPLES;
+		ghost.remaining = Constants.FADEOUT_SAMPLES;
+	}
+	private void renderGhost(GhostVoice ghost, float[] mixL, float[] mixR, int offset, int length) {
+		SampleInterpolation interpolation = this.controller.getInterpolation();
+		Sample.PlaybackBuffer buffer = ghost.buffer;
+		short[] data16 = buffer.data16;
+		float[] dataFloat = buffer.dataFloat;
+		
+		long position = ghost.position;
+		if (position >= buffer.wrapPosition)
+			position = buffer.wrap(position);
+		float gainL = ghost.gainL;
+		float gainR = ghost.gainR;
+		int end = offset + Math.min(length, ghost.remaining);
+		for (int i = offset; i < end; i++) {
+			int index = (int) (position >> POSITION_FRACTION_BITS) + buffer.offset;
+			double fraction = (position & POSITION_FRACTION_MASK) * POSITION_FRACTION_SCALE;
+			double data = data16 != null ?
+				interpolation.apply(data16, index, fraction) :
+				interpolation.apply(dataFloat, index, fraction);
+			mixL[i] += data * gainL;
+			mixR[i] += data * gainR;
+			gainL -= ghost.gainStepL;
+			gainR -= ghost.gainStepR;
+			
+			position += ghost.step;
+			if (position >= buffer.wrapPosition)
+				position = buffer.wrap(position);
 		}
-		fadeoutSamples.position(0);
-		this.fadeoutSamples = fadeoutSamples;
+		ghost.position = position;
+		ghost.gainL = gainL;
+		ghost.gainR = gainR;
+		ghost.remaining -= end - offset;
+		if (ghost.remaining <= 0)
+			ghost.buffer = null;
+	}
+	
+	/** A cut off voice fading out, preallocated per channel. */
+	private static class GhostVoice {
+		Sample.PlaybackBuffer buffer;
+		long position;
+		long step;
+		float gainL;
+		float gainR;
+		float gainStepL;
+		float gainStepR;
+		int remaining = 0;
 	}
 	
 	/**
@@ -835,10 +1182,7 @@ public class XMAudioChannel {
 	 * @return If a note will play immediately given the PatternData data.
 	 */
 	public boolean canNotePlayImmediately(PatternData data) {
-		return data.effectType != 3 && data.effectType != 5 && 
-			!(data.effectType == 20 && data.effectData == 0) && 
-			!(data.effectType == 14 && ((data.effectData & 0xff) == 0xC0 || (data.effectData & 0xf0) == 0xd0 && (data.effectData & 0xf) > 0)) && 
-			(data.volume & 0xF0) != 0xF0;
+		return PatternEvent.canNotePlayImmediately(data);
 	}
 	/**
 	 * Returns True if the note playing will result in note to note portamento.
@@ -846,8 +1190,7 @@ public class XMAudioChannel {
 	 * @return If the note playing will result in note to note portamento.
 	 */
 	public boolean isNotePorta(PatternData data) {
-		return data.note >= Constants.NOTE_FIRST && data.note < Constants.NOTE_FIRST + Constants.NOTE_COUNT && 
-	    	(data.effectType == 3 || data.effectType == 5 || (data.volume & 0xF0) == 0xF0);
+		return PatternEvent.isNotePorta(data);
 	}
 	
 	/**
@@ -21,33 +21,77 @@
 
 package me.scidev5.xmodtools.player;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.sound.sampled.AudioFormat;
 
+import me.scidev5.xmodtools.data.Instrument;
 import me.scidev5.xmodtools.data.Pattern;
-import me.scidev5.xmodtools.data.Pattern.PatternData;
+import me.scidev5.xmodtools.data.Sample;
 import me.scidev5.xmodtools.player.util.EffectType;
+import me.scidev5.xmodtools.player.util.PanLaw;
+import me.scidev5.xmodtools.player.util.SampleInterpolation;
 import me.scidev5.xmodtools.data.Song;
 
 public class XMAudioController {
 	private State state;
 	
-	private long sampleNow = 0;
-	private long sampleNext = 0;
+	/** Whole samples left to render before the next tick. */
+	private int samplesUntilTick = 0;
+	/** Fractional samples carried over between ticks so tick lengths average out exactly. */
+	private double tickSampleFraction = 0;
+	private volatile boolean tickRequested = false;
+	/** Number of channels that were audible in the last rendered segment. */
+	private volatile int activeVoices = 0;
+	/** Total samples rendered since the controller was created. */
+	private volatile long samplesRendered = 0;
+	
+	/** Commands posted from any thread, taken off by the rendering thread. */
+	private final ConcurrentLinkedQueue<PlaybackCommand> commandQueue = new ConcurrentLinkedQueue<>();
+	/** Commands taken off the queue that are waiting for their sample. (Only used by the rendering thread.) */
+	private final PriorityQueue<PlaybackCommand> pendingCommands = new PriorityQueue<>(16, 
+			(a, b) -> a.sample != b.sample ? Long.compare(a.sample, b.sample) : Long.compare(a.sequence, b.sequence));
 	/** If the XMAController should automatically tick itself. */
 	public boolean autoTick = true;
 	
 	private float sampleVolumeScale = 0.5f;
+	private boolean pitchSlide = false;
+	private SampleInterpolation interpolation = SampleInterpolation.LINEAR;
+	private PanLaw panLaw = PanLaw.LINEAR;
+	private ParallelRenderer parallelRenderer = null;
 	
-	private boolean isRendering = false;
-	private Thread renderThread = null;
+	private volatile boolean isRendering = false;
 
 	public final Song song;
 	public final AudioFormat format;
 	
 	private final List<XMAudioChannel> channels;
+	private final CompiledPattern[] compiledPatterns;
+	
+	/** The state at the last tick, guarded by a seqlock on snapshotVersion. (Odd while it is being written.) */
+	private final PlaybackSnapshot snapshot;
+	@SuppressWarnings("unused")
+	private int snapshotVersion = 0;
+	private static final VarHandle SNAPSHOT_VERSION;
+	static {
+		try {
+			SNAPSHOT_VERSION = MethodHandles.lookup().findVarHandle(XMAudioController.class, "snapshotVersion", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
+	private float[] mixL = new float[0];
+	private float[] mixR = new float[0];
+	/** Gain from the mix to the output, updated every tick. (The global volume ramps one step per tick.) */
+	private float mixGain = 0;
 	
 	public XMAudioController(Song song, AudioFormat format) {
 		if (song == null) throw new IllegalArgumentException("song was null.");
@@ -59,14 +103,46 @@ public class XMAudioController {
 		this.channels = new ArrayList<>();
 		for (int i = 0; i < song.getNumChannels(); i++)
 			channels.add(new XMAudioChannel(this));
+		this.snapshot = new PlaybackSnapshot(this.channels.size());
+		
+		this.compiledPatterns = new CompiledPattern[256];
+		this.recompilePatterns();
 		
 		// Play state init.
 		this.state.pattern = this.song.getPatternIndexByOrder(0);
 		
 		this.state.setTempo(this.song.getDefaultBPM(), this.song.getDefaultSpeed());
+		this.publishSnapshot();
 	}
 
 
+	/**
+	 * Compile all of the song's patterns again and build the playback buffers of all samples. (Patterns that are changed
+	 * with setData are recompiled automatically, but changes to the song's instruments are only picked up by this.)
+	 */
+	public void recompilePatterns() {
+		for (int i = 0; i < this.compiledPatterns.length; i++) {
+			Pattern pattern = this.song.getPattern(i);
+			this.compiledPatterns[i] = pattern != null ? new CompiledPattern(this.song, pattern) : null;
+		}
+		// Built up front so the first ticks that play each sample don't have to.
+		for (int i = 0; i < 128; i++) {
+			Instrument instrument = this.song.getInstrument(i);
+			if (instrument == null) continue;
+			for (int j = 0; j < instrument.getNumSamples(); j++) {
+				Sample sample = instrument.getSample(j);
+				if (sample != null)
+					sample.getPlaybackBuffer();
+			}
+		}
+	}
+	private CompiledPattern getCompiledPattern(int index) {
+		Pattern pattern = this.song.getPattern(index);
+		if (this.compiledPatterns[index] == null || !this.compiledPatterns[index].isCompiledFrom(pattern))
+			this.compiledPatterns[index] = new CompiledPattern(this.song, pattern);
+		return this.compiledPatterns[index];
+	}
+	
 	/**
 	 * Set the volume factor that is multiplied by all samples to prevent audio clipping.
 	 * @param volumeScale The factor to multiply all samples by. (Range 0 (mute) - 1 (full volume))
@@ -84,11 +160,128 @@ public class XMAudioController {
 	
 	
 	/**
-	 * Trigger a tick indirectly
+	 * Set whether pitch changes (vibrato, portamento, etc.) should slide linearly across each tick
+	 * instead of jumping at the start of it. (Smoother vibrato at the cost of one extra add per sample.)
+	 * @param pitchSlide If pitch changes should slide.
+	 */
+	public void setPitchSlide(boolean pitchSlide) {
+		this.pitchSlide = pitchSlide;
+	}
+	/**
+	 * Get whether pitch changes slide linearly across each tick.
+	 * @return If pitch changes slide.
+	 */
+	public boolean getPitchSlide() {
+		return this.pitchSlide;
+	}
+	/**
+	 * Set how samples are interpolated when played back at a different rate.
+	 * (Higher order interpolators sound cleaner but cost more per voice.)
+	 * @param interpolation The interpolation mode to use.
+	 */
+	public void setInterpolation(SampleInterpolation interpolation) {
+		if (interpolation == null) throw new IllegalArgumentException("interpolation was null.");
+		this.interpolation = interpolation;
+	}
+	/**
+	 * Get how samples are interpolated when played back at a different rate.
+	 * @return The interpolation mode.
+	 */
+	public SampleInterpolation getInterpolation() {
+		return this.interpolation;
+	}
+	/**
+	 * Set how panning is turned into left and right gains.
+	 * (Takes effect on each channel's next tick.)
+	 * @param panLaw The pan law to use.
+	 */
+	public void setPanLaw(PanLaw panLaw) {
+		if (panLaw == null) throw new IllegalArgumentException("panLaw was null.");
+		this.panLaw = panLaw;
+	}
+	/**
+	 * Get how panning is turned into left and right gains.
+	 * @return The pan law.
+	 */
+	public PanLaw getPanLaw() {
+		return this.panLaw;
+	}
+	/**
+	 * Render channels in parallel on a pool (ticks are still processed on the rendering thread).
+	 * The output is bit-identical to rendering serially. (A pool can be shared between several controllers.)
+	 * @param pool The pool to render channels on, or null to render serially.
+	 */
+	public void setRenderPool(ForkJoinPool pool) {
+		this.parallelRenderer = pool != null ? new ParallelRenderer(pool, this.channels) : null;
+	}
+	/**
+	 * Get the pool channels are rendered on.
+	 * @return The pool, or null if channels are rendered serially.
+	 */
+	public ForkJoinPool getRenderPool() {
+		return this.parallelRenderer != null ? this.parallelRenderer.getPool() : null;
+	}
+	
+	
+	/**
+	 * Post a command to run while rendering. Safe to call from any thread, it never blocks or interrupts
+	 * the rendering thread. (The command runs right before the sample it is timestamped with.)
+	 * @param command The command to run.
+	 * @throws IllegalArgumentException If the command is for a channel that doesn't exist.
+	 */
+	public void post(PlaybackCommand command) throws IllegalArgumentException {
+		if (command == null) throw new IllegalArgumentException("command was null.");
+		if (command.channel >= this.channels.size())
+			throw new IllegalArgumentException("Channel "+command.channel+" does not exist.");
+		this.commandQueue.offer(command);
+	}
+	/**
+	 * Run the commands that are due, and find how long until the next one.
+	 * @return The number of samples until the next pending command.
+	 */
+	private int runCommands() {
+		PlaybackCommand command;
+		while ((command = this.commandQueue.poll()) != null)
+			this.pendingCommands.add(command);
+		
+		while ((command = this.pendingCommands.peek()) != null && command.sample <= this.samplesRendered) {
+			this.pendingCommands.poll();
+			this.runCommand(command);
+		}
+		return command == null ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, command.sample - this.samplesRendered);
+	}
+	private void runCommand(PlaybackCommand command) {
+		switch (command.type) {
+		case SEEK:
+			this.state.setPatternTablePosition(command.value2, command.value1);
+			this.state.delay = 0;
+			this.state.tick = -1;
+			this.samplesUntilTick = 0;
+			break;
+		case JUMP:
+			this.state.setPatternTablePosition(command.value2, command.value1);
+			break;
+		case TEMPO:
+			this.state.setTempo(command.value1, command.value2);
+			break;
+		case MUTE:
+			this.channels.get(command.channel).setMuted(command.value1 != 0);
+			break;
+		case GLOBAL_VOLUME:
+			this.state.globalVolume = command.value1;
+			break;
+		case TRIGGER:
+			this.channels.get(command.channel).trigger(new PatternEvent(this.song, command.channel, command.data));
+			break;
+		}
+	}
+	
+	/**
+	 * Trigger a tick indirectly. (If audio is being rendered the tick happens at the start of the next segment.)
 	 */
 	public void asyncTick() {
 		if (isRendering)
-			renderThread.interrupt();
+			this.tickRequested = true;
 		else 
 			tick();
 	}
@@ -97,19 +290,29 @@ public class XMAudioController {
 		this.state.incrementPosition();
 		int tick = this.state.getTick();
 		
-		for (XMAudioChannel channel : this.channels)
-			channel.preTick();
+		for (int i = 0; i < this.channels.size(); i++)
+			this.channels.get(i).preTick();
 		
 		if (tick == 0) {
 			this.state.globalVolumeSlide = 0;
 			
-			Pattern pattern = song.getPattern(this.state.getPatternIndex());
-			for (int i = 0; i < song.getNumChannels(); i++) {
-				PatternData data = pattern.getData(this.state.getRow(), i);
-				this.runGlobalEffect(data.effectType, data.effectData);
-				XMAudioChannel channel = this.channels.get(i);
-				channel.runRow(data);
-			}		
+			CompiledPattern pattern = this.getCompiledPattern(this.state.getPatternIndex());
+			int row = this.state.getRow();
+			int channel = 0;
+			for (int i = pattern.getRowStart(row); i < pattern.getRowEnd(row); i++) {
+				PatternEvent event = pattern.getEvent(i);
+				for (; channel < event.channel; channel++)
+					this.channels.get(channel).runEmptyRow();
+				
+				this.runGlobalEffect(event);
+				this.channels.get(channel).runRow(event);
+				channel++;
+			}
+			for (; channel < song.getNumChannels(); channel++)
+				this.channels.get(channel).runEmptyRow();
+			
+			if (this.state.lastGlobalVolume == -1)
+				this.state.lastGlobalVolume = this.state.globalVolume;
 		}
 		
 		this.state.globalVolume = Math.max(0, Math.min(0x40, this.state.globalVolume + this.state.globalVolumeSlide));
@@ -119,10 +322,70 @@ public class XMAudioController {
 			channel.tick(tick);
 		}
 		postTickTimingSetup();
+		this.publishSnapshot();
+	}
+	/**
+	 * Write the current state into the snapshot. (Only called by the rendering thread.)
+	 */
+	private void publishSnapshot() {
+		int version = (int) SNAPSHOT_VERSION.get(this);
+		SNAPSHOT_VERSION.setOpaque(this, version + 1);
+		VarHandle.storeStoreFence();
+		
+		PlaybackSnapshot snapshot = this.snapshot;
+		snapshot.sample = this.samplesRendered;
+		snapshot.patternTableIndex = this.state.patternTableIndex;
+		snapshot.pattern = this.state.pattern;
+		snapshot.row = this.state.row;
+		snapshot.tick = this.state.tick;
+		snapshot.bpm = this.state.bpm;
+		snapshot.speed = this.state.speed;
+		snapshot.globalVolume = this.state.globalVolume;
+		for (int i = 0; i < this.channels.size(); i++)
+			this.channels.get(i).writeSnapshot(snapshot, i);
+		
+		SNAPSHOT_VERSION.setRelease(this, version + 2);
+	}
+	/**
+	 * Create a snapshot sized for this controller, to pass to readSnapshot.
+	 * @return An empty snapshot.
+	 */
+	public PlaybackSnapshot createSnapshot() {
+		return new PlaybackSnapshot(this.channels.size());
+	}
+	/**
+	 * Copy the state at the last tick into a snapshot. Safe to call from any thread at any rate, 
+	 * it never blocks the rendering thread. (It retries if the state changes while being copied.)
+	 * @param out The snapshot to copy into.
+	 * @return out
+	 * @throws IllegalArgumentException If out is null or has the wrong number of channels.
+	 */
+	public PlaybackSnapshot readSnapshot(PlaybackSnapshot out) throws IllegalArgumentException {
+		if (out == null) throw new IllegalArgumentException("out was null.");
+		if (out.getNumChannels() != this.channels.size()) throw new IllegalArgumentException("out had the wrong number of channels.");
+		
+		while (true) {
+			int version = (int) SNAPSHOT_VERSION.getAcquire(this);
+			if ((version & 1) == 0) {
+				out.copyFrom(this.snapshot);
+				VarHandle.loadLoadFence();
+				if ((int) SNAPSHOT_VERSION.getOpaque(this) == version)
+					return out;
+			}
+			Thread.onSpinWait();
+		}
+	}
+	/**
+	 * Get the length of a tick at the current tempo.
+	 * @return The number of samples per tick.
+	 */
+	double getSamplesPerTick() {
+		return 2.5/this.state.getBPM()*this.format.getSampleRate();
 	}
 	private void postTickTimingSetup() {
-		sampleNow = 0;
-		sampleNext = (long) (2.5f/this.state.getBPM()*this.format.getSampleRate());
+		this.tickSampleFraction += this.getSamplesPerTick();
+		this.samplesUntilTick = Math.max(1, (int) this.tickSampleFraction);
+		this.tickSampleFraction -= this.samplesUntilTick;
 	}
 	
 	private int globalVolume() {
@@ -141,42 +404,88 @@ public class XMAudioController {
 		if (dataL.length != dataR.length)
 			throw new IllegalArgumentException("Audio channel arrays had different lengths!");
 		
-		double fac = 0.75*this.sampleVolumeScale * Math.max(0f, Math.min(1f, this.globalVolume() / (float)0x40));
+		this.render(dataL.length, dataL, dataR, null, null);
+	}
+	/**
+	 * Calculate the next chunk of audio data as floats, at the same level as the 16 bit output but
+	 * without clipping. (Full scale is -1 to 1, anything beyond is left for the caller to clip.)
+	 * @param dataL An array to hold the data for the left channel.
+	 * @param dataR An array to hold the data for the right channel.
+	 * @throws IllegalArgumentException If the data channels have different lengths.
+	 */
+	public void render(float[] dataL, float[] dataR) throws IllegalArgumentException {
+		if (dataL.length != dataR.length)
+			throw new IllegalArgumentException("Audio channel arrays had different lengths!");
+		
+		this.render(dataL.length, null, null, dataL, dataR);
+	}
+	/**
+	 * Render into either the short or the float arrays. (The others are null.)
+	 */
+	private void render(int samples, short[] shortL, short[] shortR, float[] floatL, float[] floatR) {
+		if (this.mixL.length < samples) {
+			this.mixL = new float[samples];
+			this.mixR = new float[samples];
+		}
+		Arrays.fill(this.mixL, 0, samples, 0f);
+		Arrays.fill(this.mixR, 0, samples, 0f);
 		
-		renderThread = Thread.currentThread();
 		isRendering = true;
-		for (int i = 0; i < dataL.length; i++) {
-			double valueL = 0; double valueR = 0;
-			for (XMAudioChannel channel : this.channels) {
-				double value = channel.sample();
-				valueL += Math.max(0, 1-channel.getPanning()) * value;
-				valueR += Math.max(0, 1+channel.getPanning()) * value;
+		int i = 0;
+		while (i < samples) {
+			int samplesUntilCommand = this.runCommands();
+			if (this.tickRequested || this.samplesUntilTick <= 0) {
+				this.tickRequested = false;
+				tick();
+				this.mixGain = this.mixFactor();
 			}
 			
-			valueL = Math.max(-1, Math.min(1, valueL*fac));
-			valueR = Math.max(-1, Math.min(1, valueR*fac));
-			
-			dataL[i] = (short)((valueL/2+0.5) * 0xffff - 0x8000);
-			dataR[i] = (short)((valueR/2+0.5) * 0xffff - 0x8000);
-			
-			if (Thread.currentThread().isInterrupted() || sampleNow++ > sampleNext) {
-				tick();
-				fac = 0.75*this.sampleVolumeScale * Math.max(0f, Math.min(1f, this.globalVolume() / (float)0x40));
+			int length = Math.min(Math.min(samples - i, this.samplesUntilTick), samplesUntilCommand);
+			this.renderSegment(i, length);
+			if (shortL != null) {
+				MixKernel.INSTANCE.convert(this.mixL, shortL, i, length, this.mixGain);
+				MixKernel.INSTANCE.convert(this.mixR, shortR, i, length, this.mixGain);
+			} else {
+				MixKernel.INSTANCE.scale(this.mixL, floatL, i, length, this.mixGain);
+				MixKernel.INSTANCE.scale(this.mixR, floatR, i, length, this.mixGain);
 			}
+			
+			i += length;
+			this.samplesUntilTick -= length;
+			this.samplesRendered += length;
 		}
 		isRendering = false;
-		if (Thread.currentThread().isInterrupted()) tick();
+	}
+	private float mixFactor() {
+		return 0.75f*this.sampleVolumeScale * Math.max(0f, Math.min(1f, this.globalVolume() / (float)0x40));
+	}
+	/**
+	 * Render a segment of audio that lies entirely between two ticks into the mix buffers.
+	 */
+	private void renderSegment(int offset, int length) {
+		ParallelRenderer parallelRenderer = this.parallelRenderer;
+		if (parallelRenderer != null && this.channels.size() > 1) {
+			this.activeVoices = parallelRenderer.renderSegment(this.mixL, this.mixR, offset, length);
+		} else {
+			int activeVoices = 0;
+			for (int i = 0; i < this.channels.size(); i++) {
+				XMAudioChannel channel = this.channels.get(i);
+				if (channel.isAudible()) {
+					channel.renderBlock(this.mixL, this.mixR, offset, length);
+					activeVoices++;
+				} else {
+					channel.skipBlock(length);
+				}
+			}
+			this.activeVoices = activeVoices;
+		}
 	}
 	
-	private void runGlobalEffect(byte effectType, byte effectData) {
-		EffectType type = EffectType.get(effectType, effectData);
-		
-		int data = effectData & 0xff;
+	private void runGlobalEffect(PatternEvent event) {
+		EffectType type = event.effect;
+		int data = event.effectParameter;
 		
-		if (type.dataId != -1)
-			data = data & 0xf;
-		
-		switch (type) {
+		if (type != null) switch (type) {
 
 		case SET_TEMPO: 
 			if (data > 0) {
@@ -239,11 +548,27 @@ public class XMAudioController {
 	
 	/**
 	 * Get the state object for this controller.
+	 * (Only safe to use on the rendering thread, other threads should use readSnapshot.)
 	 * @return The dynamic state of this controller.
 	 */
 	public State getState() {
 		return this.state;
 	}
+	/**
+	 * Get how many samples have been rendered since the controller was created.
+	 * @return The total number of samples rendered.
+	 */
+	public long getSamplesRendered() {
+		return this.samplesRendered;
+	}
+	/**
+	 * Get how many channels were making sound in the last rendered segment. 
+	 * (Silent channels are only advanced, not rendered.)
+	 * @return The number of active voices.
+	 */
+	public int getActiveVoiceCount() {
+		return this.activeVoices;
+	}
 	
 	
 	public class State {
@@ -259,6 +584,13 @@ public class XMAudioController {
 		protected int restartPosition = 0;
 		protected boolean defaultToRestart = false;
 		
+		/** One bit for every row of every pattern table position that has been played since the last song loop. */
+		private final long[] visitedRows = new long[256*256/64];
+		private int songLoops = 0;
+		private long songLoopSample = -1;
+		private int songLoopMark = -1;
+		private long songLoopMarkSample = -1;
+		
 		private void incrementPosition() {
 			Song song = XMAudioController.this.song;
 			
@@ -278,8 +610,25 @@ public class XMAudioController {
 					this.row = this.rowNext;
 					this.rowNext = -1;
 				}
+				this.visitRow();
 			}
 		}
+		/**
+		 * Mark the current row as played, and count a song loop if it already was.
+		 * (Rows repeated by a pattern loop effect don't count.)
+		 */
+		private void visitRow() {
+			int bit = (this.patternTableIndex << 8) | (this.row & 0xff);
+			long mask = 1l << bit;
+			if ((this.visitedRows[bit >>> 6] & mask) != 0 && this.loopsLeft == 0) {
+				this.songLoops++;
+				this.songLoopSample = XMAudioController.this.samplesRendered;
+				if (this.songLoops == this.songLoopMark)
+					this.songLoopMarkSample = this.songLoopSample;
+				Arrays.fill(this.visitedRows, 0l);
+			}
+			this.visitedRows[bit >>> 6] |= mask;
+		}
 
 		/**
 		 * Set the position in the patternTable for the next row.
@@ -337,6 +686,7 @@ public class XMAudioController {
 
 		/**
 		 * Force the next row to start playing.
+		 * (Not thread safe, post a PlaybackCommand to seek from other threads.)
 		 */
 		public void forcePlayNextRow() {
 			this.tick = -1;
@@ -371,6 +721,36 @@ public class XMAudioController {
 		public int getRow() {
 			return this.row;
 		}
+		/**
+		 * Get how many times the song has looped. (A song loops when a row that was already 
+		 * played since the last loop starts again, which includes jumping back with seeks.)
+		 * @return The number of song loops.
+		 */
+		public int getSongLoopCount() {
+			return this.songLoops;
+		}
+		/**
+		 * Get the sample (in getSamplesRendered() terms) at which the song last looped.
+		 * @return The sample at which the latest song loop starts, or -1 if the song has not looped.
+		 */
+		public long getSongLoopSample() {
+			return this.songLoopSample;
+		}
+		/**
+		 * Mark a song loop so its start is remembered even if the song loops again after it.
+		 * @param loop The song loop count to mark. (Negative to clear the mark)
+		 */
+		public void setSongLoopMark(int loop) {
+			this.songLoopMark = loop;
+			this.songLoopMarkSample = loop >= 0 && loop == this.songLoops ? this.songLoopSample : -1;
+		}
+		/**
+		 * Get the sample (in getSamplesRendered() terms) at which the marked song loop starts.
+		 * @return The sample at which the marked song loop starts, or -1 if it has not been reached.
+		 */
+		public long getSongLoopMarkSample() {
+			return this.songLoopMarkSample;
+		}
 		
 		// TEMPO
 		protected int bpm = 125;
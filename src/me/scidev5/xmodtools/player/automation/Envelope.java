@@ -207,6 +207,13 @@ public class Envelope {
 			this.lastValue = this.points[0].y;
 	}
 	
+	/**
+	 * Get the envelope's position.
+	 * @return The frame that will be calculated next.
+	 */
+	public int getFrame() {
+		return this.frame;
+	}
 	/**
 	 * Set the envelope's position.
 	 * @param frame The position to set.
@@ -217,10 +224,18 @@ public class Envelope {
 	
 	
 	public Envelope copy() {
-		Envelope env = new Envelope();
-		for (int i = 0; i < this.numPoints; i++) {
-			env.addPoint(this.points[i]);
-		}
+		return this.copyInto(new Envelope());
+	}
+	/**
+	 * Overwrite another envelope with this one's points, loop and sustain, at its starting position.
+	 * @param env The envelope to overwrite.
+	 * @return The overwritten envelope.
+	 */
+	public Envelope copyInto(Envelope env) {
+		System.arraycopy(this.points, 0, env.points, 0, this.numPoints);
+		env.numPoints = this.numPoints;
+		env.frame = 0;
+		env.lastValue = 0;
 		env.setLoop(this.loop, this.loopStart, this.loopEnd);
 		env.setSustain(this.sustainEnabled, this.sustain);
 		return env;
@@ -21,8 +21,6 @@
 
 package me.scidev5.xmodtools.player.automation;
 
-import java.util.function.Function;
-
 public class LFO {
 	
 	/*
@@ -141,7 +139,18 @@ public class LFO {
 	 * @return A copy of this LFO. (Not linked)
 	 */
 	public LFO copy() {
-		LFO lfo = new LFO();
+		return this.copyInto(new LFO());
+	}
+	/**
+	 * Overwrite another LFO with this one's parameters, at wave position 0 like a new copy.
+	 * @param lfo The LFO to overwrite.
+	 * @return The overwritten LFO.
+	 */
+	public LFO copyInto(LFO lfo) {
+		lfo.position = 0;
+		lfo.value = 0;
+		lfo.sweepAmount = 0;
+		lfo.waveForm = WaveForm.SINE;
 		lfo.setAmplitude(this.amplitude);
 		lfo.setFrequencyParameter(this.frequencyParameter);
 		lfo.setSweep(this.sweepTotal);
@@ -177,9 +186,11 @@ public class LFO {
 			return frac > 0.5f ? -1.0f : 1.0f;
 		},false);
 		
-		private final Function<Float, Float> calculation;
+		private static final WaveForm[] BY_INDEX = {SINE, RAMP_DOWN, SQUARE, null, SINE_CONTINUOUS, RAMP_DOWN_CONTINUOUS, SQUARE_CONTINUOUS};
+		
+		private final Calculation calculation;
 		public final boolean resetOnNote;
-		private WaveForm(Function<Float, Float> calculation, boolean resetOnNote) {
+		private WaveForm(Calculation calculation, boolean resetOnNote) {
 			this.calculation = calculation;
 			this.resetOnNote = resetOnNote;
 		}
@@ -204,12 +215,15 @@ public class LFO {
 		 * @return The waveForm at that index.
 		 */
 		public static WaveForm get(int i) {
-			if (i >= 0 && i < 3)
-				return (new WaveForm[] {SINE,RAMP_DOWN,SQUARE})[i];
-			else if (i >= 4 && i < 8)
-				return (new WaveForm[] {SINE_CONTINUOUS,RAMP_DOWN_CONTINUOUS,SQUARE_CONTINUOUS})[i-4];
+			if (i >= 0 && i < BY_INDEX.length)
+				return BY_INDEX[i];
 			else 
 				return null;
 		}
+		
+		/** The waveForm's shape over one cycle, on unboxed floats. */
+		private interface Calculation {
+			float apply(float frac);
+		}
 	}
 }
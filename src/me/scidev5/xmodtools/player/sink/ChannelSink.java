@@ -0,0 +1,74 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+package me.scidev5.xmodtools.player.sink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import javax.sound.sampled.AudioFormat;
+
+import me.scidev5.xmodtools.player.IAudioSink;
+
+public class ChannelSink implements IAudioSink {
+	private final WritableByteChannel channel;
+	
+	/**
+	 * Create a sink that writes raw PCM to a channel (a file, socket, pipe, etc.).
+	 * @param channel The channel to write to. (Closed when the sink is closed)
+	 * @throws IllegalArgumentException If the channel is null.
+	 */
+	public ChannelSink(WritableByteChannel channel) throws IllegalArgumentException {
+		if (channel == null) throw new IllegalArgumentException("channel was null.");
+		this.channel = channel;
+	}
+	
+	@Override
+	public void open(AudioFormat format) throws IOException {
+		if (!this.channel.isOpen()) throw new IOException("channel was closed.");
+	}
+	
+	@Override
+	public void write(ByteBuffer data) throws IOException {
+		while (data.hasRemaining())
+			this.channel.write(data);
+	}
+	
+	@Override
+	public int getBufferedBytes() {
+		return 0;
+	}
+	
+	@Override
+	public int getCapacity() {
+		return 0;
+	}
+	
+	@Override
+	public void close() {
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
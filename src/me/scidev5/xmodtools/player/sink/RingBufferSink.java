@@ -0,0 +1,112 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+package me.scidev5.xmodtools.player.sink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+
+import me.scidev5.xmodtools.player.IAudioSink;
+
+public class RingBufferSink implements IAudioSink {
+	private final byte[] ring;
+	private long written = 0;
+	private long read = 0;
+	private boolean closed = false;
+	
+	/**
+	 * Create a sink that keeps audio in memory until it is read.
+	 * @param capacity The size of the buffer in bytes.
+	 * @throws IllegalArgumentException If the capacity is less than 1.
+	 */
+	public RingBufferSink(int capacity) throws IllegalArgumentException {
+		if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1.");
+		this.ring = new byte[capacity];
+	}
+	
+	@Override
+	public synchronized void open(AudioFormat format) {
+		this.written = this.read = 0;
+		this.closed = false;
+	}
+	
+	@Override
+	public synchronized void write(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			while (this.written - this.read == this.ring.length) {
+				if (this.closed) throw new IOException("sink was closed.");
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while waiting for space.", e);
+				}
+			}
+			int index = (int) (this.written % this.ring.length);
+			int length = (int) Math.min(data.remaining(), Math.min(this.ring.length - index, this.ring.length - (this.written - this.read)));
+			data.get(this.ring, index, length);
+			this.written += length;
+			this.notifyAll();
+		}
+	}
+	
+	/**
+	 * Read buffered audio, waiting until at least one byte is available.
+	 * @param data The array to read into.
+	 * @param offset Where in the array to start.
+	 * @param length The most bytes to read.
+	 * @return The number of bytes read, or -1 if the sink was closed and is empty.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public synchronized int read(byte[] data, int offset, int length) throws InterruptedException {
+		while (this.written == this.read) {
+			if (this.closed) return -1;
+			this.wait();
+		}
+		int total = 0;
+		while (total < length && this.written > this.read) {
+			int index = (int) (this.read % this.ring.length);
+			int n = (int) Math.min(length - total, Math.min(this.ring.length - index, this.written - this.read));
+			System.arraycopy(this.ring, index, data, offset + total, n);
+			this.read += n;
+			total += n;
+		}
+		this.notifyAll();
+		return total;
+	}
+	
+	@Override
+	public synchronized int getBufferedBytes() {
+		return (int) (this.written - this.read);
+	}
+	@Override
+	public int getCapacity() {
+		return this.ring.length;
+	}
+	
+	@Override
+	public synchronized void close() {
+		this.closed = true;
+		this.notifyAll();
+	}
+}
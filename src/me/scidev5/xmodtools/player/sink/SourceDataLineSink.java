@@ -0,0 +1,84 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+package me.scidev5.xmodtools.player.sink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import me.scidev5.xmodtools.player.IAudioSink;
+
+public class SourceDataLineSink implements IAudioSink {
+	private SourceDataLine line = null;
+	private byte[] transfer = new byte[0];
+	
+	@Override
+	public void open(AudioFormat format) throws IOException {
+		try {
+			this.line = AudioSystem.getSourceDataLine(format);
+			this.line.open();
+			this.line.start();
+		} catch (LineUnavailableException | IllegalArgumentException e) {
+			throw new IOException("Could not open audio line.", e);
+		}
+	}
+	
+	@Override
+	public void write(ByteBuffer data) throws IOException {
+		if (this.line == null) throw new IOException("sink was not open.");
+		
+		int length = data.remaining();
+		if (data.hasArray()) {
+			this.line.write(data.array(), data.arrayOffset() + data.position(), length);
+			data.position(data.limit());
+		} else {
+			if (this.transfer.length < length)
+				this.transfer = new byte[length];
+			data.get(this.transfer, 0, length);
+			this.line.write(this.transfer, 0, length);
+		}
+	}
+	
+	@Override
+	public int getBufferedBytes() {
+		if (this.line == null) return 0;
+		return this.line.getBufferSize() - this.line.available();
+	}
+	
+	@Override
+	public int getCapacity() {
+		if (this.line == null) return 0;
+		return this.line.getBufferSize();
+	}
+	
+	@Override
+	public void close() {
+		if (this.line != null) {
+			this.line.close();
+			this.line = null;
+		}
+	}
+}
@@ -90,11 +90,34 @@ public enum EffectType {
 		this.dataId = dataId;
 	}
 	
-	public static EffectType get(byte type, byte data) {
+	/** Effect types by effect type byte and upper nibble of the effect data. */
+	private static final EffectType[][] LOOKUP = new EffectType[256][16];
+	static {
+		// Filled backwards so earlier declarations take priority.
 		EffectType[] all = values();
-		for (EffectType effectType : all)
-			if (effectType.id == (type & 0xff) && (effectType.dataId == -1 || effectType.dataId == ((data >> 4) & 0xf)))
-				return effectType;
-		return null;
+		for (int i = all.length - 1; i >= 0; i--)
+			for (int dataId = 0; dataId < 16; dataId++)
+				if (all[i].dataId == -1 || all[i].dataId == dataId)
+					LOOKUP[all[i].id][dataId] = all[i];
+	}
+	
+	/**
+	 * Get the effect type for some pattern data.
+	 * @param type The effect type byte.
+	 * @param data The effect data byte.
+	 * @return The effect type (or null if there is no such effect).
+	 */
+	public static EffectType get(byte type, byte data) {
+		return LOOKUP[type & 0xff][(data >> 4) & 0xf];
+	}
+	
+	/**
+	 * Get the parameter of this effect from the effect data. 
+	 * (Extended effects only use the lower nibble, the upper one selects the effect.)
+	 * @param data The effect data byte.
+	 * @return The parameter. (Range: $0 - $ff, or $0 - $f for extended effects)
+	 */
+	public int getParameter(byte data) {
+		return this.dataId != -1 ? data & 0xf : data & 0xff;
 	}
 }
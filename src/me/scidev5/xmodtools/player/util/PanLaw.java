@@ -0,0 +1,69 @@
+/*
+ * XModTools  (A set of Java tools for using extended module song files.)
+ * Copyright (C) 2020  SciDev5 (https://github.com/SciDev5)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * License file should be called "COPYING" which is in the root of the
+ * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
+ */
+
+
+package me.scidev5.xmodtools.player.util;
+
+public enum PanLaw {
+	/** Gains fall off linearly towards the opposite side. (Centre is 1 on both sides, hard left is 2 on the left.) */
+	LINEAR(false),
+	/** Gains follow a quarter sine, so the total power stays the same across the field. (Centre is 1 on both sides.) */
+	CONSTANT_POWER(true);
+	
+	/** Number of steps between hard left and hard right in the gain table. */
+	public static final int STEPS = 256;
+	
+	/** Left gains for every step, null if calculated directly. (The right gain is the mirrored entry.) */
+	private final float[] table;
+	
+	private PanLaw(boolean tabled) {
+		if (tabled) {
+			this.table = new float[STEPS + 1];
+			for (int i = 0; i <= STEPS; i++)
+				this.table[i] = (float) (Math.sqrt(2) * Math.cos(i * Math.PI / (2 * STEPS)));
+		} else
+			this.table = null;
+	}
+	
+	/**
+	 * Get the gain of the left side for a panning.
+	 * @param panning The panning. (-1 -> left; 1 -> right)
+	 * @return The gain of the left side.
+	 */
+	public float getLeft(float panning) {
+		if (this.table == null)
+			return 1 - panning;
+		return this.table[getStep(panning)];
+	}
+	/**
+	 * Get the gain of the right side for a panning.
+	 * @param panning The panning. (-1 -> left; 1 -> right)
+	 * @return The gain of the right side.
+	 */
+	public float getRight(float panning) {
+		if (this.table == null)
+			return 1 + panning;
+		return this.table[STEPS - getStep(panning)];
+	}
+	private static int getStep(float panning) {
+		return Math.min(STEPS, Math.max(0, Math.round((panning + 1) * (STEPS / 2))));
+	}
+}
@@ -19,33 +19,159 @@
  * master branch of the GitHub repositiory (https://github.com/SciDev5/Java-XModTools).
  */
 
+
 package me.scidev5.xmodtools.player.util;
 
 public enum SampleInterpolation {
-	LINEAR((short sampleStart, short sampleEnd, double interpolate) -> {
-		double start = ((sampleStart+0x8000)/(double)0xffff)*2-1;
-		double end = ((sampleEnd+0x8000)/(double)0xffff)*2-1;
+	LINEAR((double start, double end, double interpolate) -> {
 		return start + interpolate * (end - start);
 	}),
-	STEP((short sampleStart, short sampleEnd, double interpolate) -> {
-		return ((sampleStart+0x8000)/(double)0xffff)*2-1;
+	STEP((double start, double end, double interpolate) -> {
+		return start;
+	}),
+	/** Catmull-Rom cubic Hermite spline through 4 points. */
+	CUBIC_HERMITE(4, (int node, double x) -> {
+		switch (node) {
+		case -1: return ((-x + 2) * x - 1) * x / 2;
+		case  0: return ((3 * x - 5) * x * x + 2) / 2;
+		case  1: return ((-3 * x + 4) * x + 1) * x / 2;
+		default: return (x - 1) * x * x / 2;
+		}
+	}),
+	/** Cubic Lagrange polynomial through 4 points. */
+	LAGRANGE(4, (int node, double x) -> {
+		double weight = 1;
+		for (int m = -1; m <= 2; m++)
+			if (m != node) weight *= (x - m) / (node - m);
+		return weight;
+	}),
+	/** 8-tap sinc with a Blackman window. */
+	WINDOWED_SINC(8, (int node, double x) -> {
+		double t = node - x;
+		if (Math.abs(t) >= 4) return 0;
+		double sinc = t == 0 ? 1 : Math.sin(Math.PI * t) / (Math.PI * t);
+		double window = 0.42 + 0.5 * Math.cos(Math.PI * t / 4) + 0.08 * Math.cos(Math.PI * t / 2);
+		return sinc * window;
 	});
-	// TODO add more interpolators
 	
+	/** Number of fractional positions that weights are precomputed for. */
+	public static final int PHASES = 1024;
+	
+	private final Calculate calculateFunction;
+	/** Number of points read around each position. */
+	private final int taps;
+	/** Weights for every phase (PHASES+1 rows of taps weights), null if calculated directly. */
+	private final float[] table;
 	
-	private Calculate calculateFunction;
 	private SampleInterpolation(Calculate calculateFunction) {
 		this.calculateFunction = calculateFunction;
+		this.taps = 2;
+		this.table = null;
 	}
+	private SampleInterpolation(int taps, Weight weight) {
+		this.calculateFunction = (double start, double end, double interpolate) -> start + interpolate * (end - start);
+		this.taps = taps;
+		this.table = new float[(PHASES + 1) * taps];
+		
+		for (int phase = 0; phase <= PHASES; phase++) {
+			double x = phase / (double) PHASES;
+			double[] weights = new double[taps];
+			double sum = 0;
+			for (int k = 0; k < taps; k++) {
+				weights[k] = weight.apply(k - (taps/2 - 1), x);
+				sum += weights[k];
+			}
+			// Rows sum to exactly 1 so DC (and the normalization offset) passes through unchanged.
+			for (int k = 0; k < taps; k++)
+				this.table[phase * taps + k] = (float) (weights[k] / sum);
+		}
+	}
+	
+	/**
+	 * Get how many points around the position this interpolator reads.
+	 * (Points from index-(taps/2-1) to index+taps/2.)
+	 */
+	public int getTaps() {
+		return this.taps;
+	}
+	
+	/**
+	 * Interpolate between two points. (Interpolators that need more points fall back to linear.)
+	 * @param sampleStart The sample before the position.
+	 * @param sampleEnd The sample after the position.
+	 * @param interpolate How far between the two samples the position is (0 - 1).
+	 * @return The interpolated value normalized to the range -1 to 1.
+	 */
 	public double apply(short sampleStart, short sampleEnd, double interpolate) {
-		return this.calculateFunction.apply(sampleStart, sampleEnd, interpolate);
+		return this.calculateFunction.apply(normalize(sampleStart), normalize(sampleEnd), interpolate);
 	}
 	public double apply(byte sampleStart, byte sampleEnd, double interpolate) {
-		return this.calculateFunction.apply((short)(sampleStart<<8), (short)(sampleEnd<<8), interpolate);
+		return this.apply((short)(sampleStart<<8), (short)(sampleEnd<<8), interpolate);
+	}
+	/**
+	 * Interpolate between two samples that are already normalized to the range -1 to 1.
+	 * @param sampleStart The sample before the position.
+	 * @param sampleEnd The sample after the position.
+	 * @param interpolate How far between the two samples the position is (0 - 1).
+	 * @return The interpolated value.
+	 */
+	public double apply(float sampleStart, float sampleEnd, double interpolate) {
+		return this.calculateFunction.apply(sampleStart, sampleEnd, interpolate);
+	}
+	/**
+	 * Interpolate inside an array of 16-bit samples.
+	 * @param data The samples. (Must have getTaps() points readable around index.)
+	 * @param index The index of the sample before the position.
+	 * @param interpolate How far between data[index] and data[index+1] the position is (0 - 1).
+	 * @return The interpolated value normalized to the range -1 to 1.
+	 */
+	public double apply(short[] data, int index, double interpolate) {
+		if (this.table == null)
+			return this.calculateFunction.apply(normalize(data[index]), normalize(data[index+1]), interpolate);
+		
+		int taps = this.taps;
+		int row = (int) (interpolate * PHASES + 0.5) * taps;
+		int first = index - (taps/2 - 1);
+		float sum = 0;
+		for (int k = 0; k < taps; k++)
+			sum += this.table[row + k] * data[first + k];
+		// Same mapping as normalize(), which is linear, so it can be applied after weighting.
+		return (sum + 0.5) * (2 / (double) 0xffff);
+	}
+	/**
+	 * Interpolate inside an array of samples that are already normalized to the range -1 to 1.
+	 * @param data The samples. (Must have getTaps() points readable around index.)
+	 * @param index The index of the sample before the position.
+	 * @param interpolate How far between data[index] and data[index+1] the position is (0 - 1).
+	 * @return The interpolated value.
+	 */
+	public double apply(float[] data, int index, double interpolate) {
+		if (this.table == null)
+			return this.calculateFunction.apply(data[index], data[index+1], interpolate);
+		
+		int taps = this.taps;
+		int row = (int) (interpolate * PHASES + 0.5) * taps;
+		int first = index - (taps/2 - 1);
+		float sum = 0;
+		for (int k = 0; k < taps; k++)
+			sum += this.table[row + k] * data[first + k];
+		return sum;
+	}
+	
+	private static double normalize(short sample) {
+		return ((sample+0x8000)/(double)0xffff)*2-1;
 	}
 	
 	@FunctionalInterface
 	private interface Calculate {
-		public double apply(short sampleStart, short sampleEnd, double interpolate);
+		public double apply(double start, double end, double interpolate);
+	}
+	@FunctionalInterface
+	private interface Weight {
+		/**
+		 * @param node Which point the weight is for, relative to the one before the position.
+		 * @param x How far past that point the position is (0 - 1).
+		 */
+		public double apply(int node, double x);
 	}
 }